@@ -0,0 +1,126 @@
+package com.sequencing.oauth.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.core.DefaultSequencingOAuth2Client;
+import com.sequencing.oauth.core.Token;
+
+/**
+ * Session replication round trip of an authorized client: compact form of
+ * DefaultSequencingOAuth2Client against default serialization of the same
+ * state, which is what the client used to be written as. Serialized sizes
+ * are printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientSerializationBenchmark
+{
+	private DefaultSequencingOAuth2Client client;
+	private DefaultFormState state;
+	private byte[] serializedClient;
+	private byte[] serializedState;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		AuthenticationParameters parameters = new AuthenticationParameters.ConfigurationBuilder()
+				.withRedirectUri("https://example.com/Default/Authcallback")
+				.withClientId("benchmark-app")
+				.withClientSecret("benchmark-secret")
+				.build();
+		Token token = new Token("4ad9ae2b1bcf9d7b7d3d2c9f1e6e3f5d8f0e7a21", "b8e1e6f6c0c3b1b57e2d0f6e0a9d4c3b2a1f0e9d", 3600);
+
+		client = new DefaultSequencingOAuth2Client(parameters, token);
+		state = new DefaultFormState(parameters, token, "user-42");
+
+		serializedClient = serialize(client);
+		serializedState = serialize(state);
+		System.out.println("Serialized size: compact " + serializedClient.length
+				+ " bytes, default " + serializedState.length + " bytes");
+	}
+
+	@TearDown
+	public void tearDown() {
+		client.stopTokenRefresh();
+	}
+
+	@Benchmark
+	public Object compactRoundTrip() throws Exception {
+		return deserialize(serialize(client));
+	}
+
+	@Benchmark
+	public Object defaultRoundTrip() throws Exception {
+		return deserialize(serialize(state));
+	}
+
+	@Benchmark
+	public Object compactRead() throws Exception {
+		return deserialize(serializedClient);
+	}
+
+	@Benchmark
+	public Object defaultRead() throws Exception {
+		return deserialize(serializedState);
+	}
+
+	static byte[] serialize(Object object) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(object);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fields DefaultSequencingOAuth2Client used to be serialized with
+	 */
+	static class DefaultFormState implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final AuthenticationParameters parameters;
+		private final Token token;
+		private final String user;
+
+		DefaultFormState(AuthenticationParameters parameters, Token token, String user) {
+			this.parameters = parameters;
+			this.token = token;
+			this.user = user;
+		}
+	}
+}
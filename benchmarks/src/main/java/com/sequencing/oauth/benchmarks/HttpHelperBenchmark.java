@@ -0,0 +1,92 @@
+package com.sequencing.oauth.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.core.Token;
+import com.sequencing.oauth.helper.HttpHelper;
+import com.sequencing.oauth.helper.HttpTransports;
+
+/**
+ * HttpHelper request execution against embedded stub server
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class HttpHelperBenchmark
+{
+	@Param({"10", "1000"})
+	public int fileCount;
+
+	@Param({HttpTransports.APACHE, HttpTransports.JDK})
+	public String transport;
+
+	private StubServer server;
+	private AuthenticationParameters parameters;
+	private Token token;
+	private String dataSourceListUri;
+	private Map<String, String> refreshParams;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		server = new StubServer(fileCount);
+		server.start();
+
+		parameters = new AuthenticationParameters.ConfigurationBuilder()
+				.withOAuthTokenUri(server.getTokenUri())
+				.withApiUri(server.getBaseUri())
+				.withRedirectUri("https://example.com/Default/Authcallback")
+				.withClientId("benchmark-app")
+				.withClientSecret("benchmark-secret")
+				.withHttpTransport(transport)
+				.build();
+		HttpHelper.configure(parameters);
+
+		token = new Token("4ad9ae2b1bcf9d7b7d3d2c9f1e6e3f5d8f0e7a21", "b8e1e6f6c0c3b1b57e2d0f6e0a9d4c3b2a1f0e9d", 3600);
+		dataSourceListUri = server.getBaseUri() + "/DataSourceList?uploaded=true&shared=true";
+
+		refreshParams = new HashMap<String, String>();
+		refreshParams.put("grant_type", "refresh_token");
+		refreshParams.put("refresh_token", token.getRefreshToken());
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		HttpHelper.shutdown();
+		HttpTransports.shutdown();
+		server.stop();
+	}
+
+	@Benchmark
+	public String doOauthSecureGet() {
+		return HttpHelper.doOauthSecureGet(dataSourceListUri, token);
+	}
+
+	@Benchmark
+	public String doBasicSecurePost() {
+		return HttpHelper.doBasicSecurePost(server.getTokenUri(), parameters, refreshParams);
+	}
+}
@@ -0,0 +1,102 @@
+package com.sequencing.oauth.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonArray;
+import com.sequencing.oauth.core.FileMetadata;
+import com.sequencing.oauth.core.Token;
+import com.sequencing.oauth.helper.FileMetadataParser;
+import com.sequencing.oauth.helper.JsonHelper;
+import com.sequencing.oauth.helper.StringParser;
+import com.sequencing.oauth.helper.TokenResponseParser;
+
+/**
+ * JSON handling of token and DataSourceList replies
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonHelperBenchmark
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Param({"10", "100", "1000"})
+	public int fileCount;
+
+	private String tokenResponse;
+	private byte[] tokenResponseBytes;
+	private String dataSourceList;
+	private byte[] dataSourceListBytes;
+	private JsonArray dataSourceArray;
+
+	@Setup
+	public void setUp()
+	{
+		tokenResponse = Payloads.tokenResponse(3600);
+		tokenResponseBytes = tokenResponse.getBytes(UTF_8);
+		dataSourceList = Payloads.dataSourceList(fileCount);
+		dataSourceListBytes = dataSourceList.getBytes(UTF_8);
+		dataSourceArray = JsonHelper.toJsonArray(dataSourceList);
+	}
+
+	@Benchmark
+	public String getField() {
+		return JsonHelper.getField(tokenResponse, "access_token");
+	}
+
+	/**
+	 * Token reply decoding as done before TokenResponseParser: String
+	 * built from content, then parsed once for every field
+	 */
+	@Benchmark
+	public Token tokenByGetField() throws IOException
+	{
+		String result = StringParser.INSTANCE.parse(new ByteArrayInputStream(tokenResponseBytes), UTF_8);
+		return new Token(JsonHelper.getField(result, "access_token"), JsonHelper.getField(result, "refresh_token"),
+				Long.parseLong(JsonHelper.getField(result, "expires_in")));
+	}
+
+	@Benchmark
+	public Token parseTokenResponse() throws IOException {
+		return TokenResponseParser.INSTANCE.parse(new ByteArrayInputStream(tokenResponseBytes), UTF_8);
+	}
+
+	@Benchmark
+	public JsonArray toJsonArray() {
+		return JsonHelper.toJsonArray(dataSourceList);
+	}
+
+	@Benchmark
+	public String[] parseJsonArrayToStringArray() {
+		return JsonHelper.parseJsonArrayToStringArray(dataSourceArray);
+	}
+
+	@Benchmark
+	public String[] toJsonArrayAndStringArray() {
+		return JsonHelper.parseJsonArrayToStringArray(JsonHelper.toJsonArray(dataSourceList));
+	}
+
+	@Benchmark
+	public List<FileMetadata> parseFileMetadata() throws IOException {
+		return FileMetadataParser.INSTANCE.parse(new ByteArrayInputStream(dataSourceListBytes), UTF_8);
+	}
+}
@@ -0,0 +1,275 @@
+package com.sequencing.oauth.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.core.DefaultSequencingFileMetadataApi;
+import com.sequencing.oauth.core.DefaultSequencingOAuth2Client;
+import com.sequencing.oauth.core.FileMetadata;
+import com.sequencing.oauth.core.TokenRefreshScheduler;
+import com.sequencing.oauth.exception.HttpStatusException;
+import com.sequencing.oauth.helper.HttpTransports;
+import com.sequencing.oauth.metrics.Histogram;
+import com.sequencing.oauth.metrics.Metrics;
+import com.sequencing.oauth.metrics.RecordingMetricsListener;
+
+/**
+ * Drives logins and file listings of a population of users against embedded
+ * StubServer at a fixed rate, while short token lifetime keeps refresh cycle
+ * busy. Operations are started on schedule whether or not earlier ones have
+ * completed, and latency is measured from the scheduled start, so that a slow
+ * library shows up in percentiles instead of lowering the rate. Reports
+ * throughput, latency percentiles and errors of every operation along with
+ * library metrics. Options are given as name=value, e.g.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.sequencing.oauth.benchmarks.LoadDriver rate=500 duration=60 latency=20 errorRate=0.01
+ * </pre>
+ */
+public class LoadDriver
+{
+	private static final String OP_LOGIN = "login";
+	private static final String OP_LIST_FILES = "listFiles";
+
+	private final Map<String, String> options;
+	private final int rate;
+	private final long duration;
+	private final int users;
+	private final double loginRatio;
+
+	private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, AtomicLong> outcomes = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong missedStarts = new AtomicLong();
+
+	private StubServer server;
+	private AuthenticationParameters parameters;
+	private AtomicReferenceArray<DefaultSequencingOAuth2Client> clients;
+
+	LoadDriver(Map<String, String> options)
+	{
+		this.options = options;
+		rate = getInt("rate", 200);
+		duration = getInt("duration", 60);
+		users = getInt("users", 200);
+		loginRatio = getDouble("loginRatio", 0.05);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Map<String, String> options = new HashMap<String, String>();
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("Option is to be given as name=value: " + arg);
+			options.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+
+		LoadDriver driver = new LoadDriver(options);
+		try {
+			driver.setUp();
+			driver.run();
+			driver.report();
+		} finally {
+			driver.tearDown();
+		}
+		System.exit(0);
+	}
+
+	void setUp() throws Exception
+	{
+		server = new StubServer(new StubServer.Settings()
+				.withFileCount(getInt("files", 100))
+				.withTokenLifetime(getInt("tokenLifetime", 60))
+				.withLatency(getInt("latency", 0))
+				.withLatencyJitter(getInt("jitter", 0))
+				.withErrorRate(getDouble("errorRate", 0))
+				.withErrorStatus(getInt("errorStatus", 503))
+				.withTokenValidation(true)
+				.withThreads(getInt("serverThreads", 32)));
+		server.start();
+
+		parameters = new AuthenticationParameters.ConfigurationBuilder()
+				.withOAuthTokenUri(server.getTokenUri())
+				.withApiUri(server.getBaseUri())
+				.withRedirectUri("https://example.com/Default/Authcallback")
+				.withClientId("load-driver")
+				.withClientSecret("load-driver-secret")
+				.withHttpTransport(get("transport", HttpTransports.APACHE))
+				.withMaxConnectionsTotal(getInt("maxConnections", AuthenticationParameters.DEFAULT_MAX_CONNECTIONS_TOTAL))
+				.withMaxConnectionsPerRoute(getInt("maxConnections", AuthenticationParameters.DEFAULT_MAX_CONNECTIONS_PER_ROUTE))
+				.withRefreshBudget(getInt("refreshBudget", AuthenticationParameters.DEFAULT_REFRESH_BUDGET))
+				.build();
+		Metrics.setListener(new RecordingMetricsListener());
+
+		clients = new AtomicReferenceArray<DefaultSequencingOAuth2Client>(users);
+		for (int i = 0; i < users; i++)
+			clients.set(i, login());
+	}
+
+	void run() throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(getInt("threads", 64));
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long operations = rate * duration;
+
+		System.out.println("Running " + operations + " operations at " + rate + "/s against " + users + " users");
+		long start = System.nanoTime();
+		for (long i = 0; i < operations; i++)
+		{
+			final long scheduled = start + i * interval;
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0)
+				TimeUnit.NANOSECONDS.sleep(wait);
+			else if (wait < -interval)
+				missedStarts.incrementAndGet();
+
+			executor.execute(new Runnable() {
+				public void run() {
+					operation(scheduled);
+				}
+			});
+		}
+
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("Completed in %.1f s%n", elapsed / 1e9);
+	}
+
+	/**
+	 * Either logs in a new user in place of a random existing one or lists
+	 * files of a random user
+	 */
+	void operation(long scheduled)
+	{
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int slot = random.nextInt(users);
+		String operation = random.nextDouble() < loginRatio ? OP_LOGIN : OP_LIST_FILES;
+		String outcome = "ok";
+
+		try {
+			if (OP_LOGIN.equals(operation)) {
+				DefaultSequencingOAuth2Client previous = clients.getAndSet(slot, login());
+				previous.stopTokenRefresh();
+			} else {
+				List<FileMetadata> files = new DefaultSequencingFileMetadataApi(clients.get(slot)).getOwnFileMetadata();
+				if (files == null)
+					outcome = "no reply";
+			}
+		} catch (HttpStatusException e) {
+			outcome = "HTTP " + e.getStatusCode();
+		} catch (Exception e) {
+			outcome = e.getClass().getSimpleName();
+		}
+
+		getLatency(operation).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled));
+		getOutcome(operation + " " + outcome).incrementAndGet();
+	}
+
+	/**
+	 * Goes through login redirect and callback of a new user
+	 */
+	DefaultSequencingOAuth2Client login() throws Exception
+	{
+		DefaultSequencingOAuth2Client client = new DefaultSequencingOAuth2Client(parameters);
+		String state = client.getHttpParametersForRedirect().get("state");
+		client.authorize("code-" + ThreadLocalRandom.current().nextInt(), state);
+		return client;
+	}
+
+	void report()
+	{
+		System.out.println();
+		System.out.printf("%-12s %10s %10s %10s %10s %10s %10s %10s%n",
+				"operation", "count", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (Map.Entry<String, Histogram> e : new TreeMap<String, Histogram>(latencies).entrySet())
+			printLatency(e.getKey(), e.getValue(), (double) e.getValue().getCount() / duration);
+
+		System.out.println();
+		System.out.println("Outcomes");
+		for (Map.Entry<String, AtomicLong> e : new TreeMap<String, AtomicLong>(outcomes).entrySet())
+			System.out.printf("  %-40s %10d%n", e.getKey(), e.getValue().get());
+		if (missedStarts.get() > 0)
+			System.out.println("  operations started late by driver      " + missedStarts.get());
+
+		RecordingMetricsListener metrics = (RecordingMetricsListener) Metrics.getListener();
+		System.out.println();
+		System.out.println("HTTP exchanges by endpoint");
+		System.out.printf("%-12s %10s %10s %10s %10s %10s %10s %10s%n",
+				"endpoint", "count", "ops/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (String endpoint : new TreeSet<String>(metrics.getEndpoints())) {
+			Histogram latency = metrics.getLatency(endpoint);
+			printLatency(endpoint, latency, (double) latency.getCount() / duration);
+			System.out.println("  status codes " + new TreeMap<Integer, Long>(metrics.getStatusCounts(endpoint))
+					+ ", wire bytes " + metrics.getWireBytes(endpoint) + ", decoded bytes " + metrics.getDecodedBytes(endpoint));
+		}
+
+		TokenRefreshScheduler scheduler = TokenRefreshScheduler.getInstance();
+		System.out.println();
+		System.out.println("Token refreshes: " + metrics.getRefreshSuccessCount() + " succeeded, "
+				+ metrics.getRefreshFailureCount() + " failed, " + scheduler.getThrottledCount() + " throttled by budget, "
+				+ "max start lag " + scheduler.getMaxLagMillis() + " ms");
+		System.out.println("Stub server: " + server.getTokenRequestCount() + " token requests, "
+				+ server.getFileRequestCount() + " DataSourceList requests, " + server.getInjectedErrorCount()
+				+ " injected errors, " + server.getRejectedCount() + " rejected tokens");
+	}
+
+	void tearDown()
+	{
+		if (server != null)
+			server.stop();
+	}
+
+	private static void printLatency(String name, Histogram histogram, double throughput)
+	{
+		System.out.printf("%-12s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n", name, histogram.getCount(), throughput,
+				histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0,
+				histogram.getPercentile(99) / 1000.0, histogram.getPercentile(99.9) / 1000.0,
+				histogram.getMax() / 1000.0);
+	}
+
+	private Histogram getLatency(String operation)
+	{
+		Histogram histogram = latencies.get(operation);
+		if (histogram == null) {
+			latencies.putIfAbsent(operation, new Histogram());
+			histogram = latencies.get(operation);
+		}
+		return histogram;
+	}
+
+	private AtomicLong getOutcome(String outcome)
+	{
+		AtomicLong counter = outcomes.get(outcome);
+		if (counter == null) {
+			outcomes.putIfAbsent(outcome, new AtomicLong());
+			counter = outcomes.get(outcome);
+		}
+		return counter;
+	}
+
+	private String get(String name, String defaultValue) {
+		String value = options.get(name);
+		return value != null ? value : defaultValue;
+	}
+
+	private int getInt(String name, int defaultValue) {
+		return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+	}
+
+	private double getDouble(String name, double defaultValue) {
+		return Double.parseDouble(get(name, String.valueOf(defaultValue)));
+	}
+}
@@ -0,0 +1,52 @@
+package com.sequencing.oauth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.core.DefaultSequencingOAuth2Client;
+
+/**
+ * Login redirect path: state generation and redirect URL building
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginRedirectBenchmark
+{
+	private AuthenticationParameters.ConfigurationBuilder builder;
+	private DefaultSequencingOAuth2Client client;
+
+	@Setup
+	public void setUp()
+	{
+		builder = new AuthenticationParameters.ConfigurationBuilder()
+				.withRedirectUri("https://example.com/Default/Authcallback")
+				.withClientId("benchmark-app")
+				.withClientSecret("benchmark-secret");
+		client = new DefaultSequencingOAuth2Client(builder.build());
+	}
+
+	@Benchmark
+	public String getLoginRedirectUrl() {
+		return client.getLoginRedirectUrl();
+	}
+
+	@Benchmark
+	public String nextState() {
+		return builder.nextState();
+	}
+}
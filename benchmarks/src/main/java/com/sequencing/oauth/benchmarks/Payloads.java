@@ -0,0 +1,53 @@
+package com.sequencing.oauth.benchmarks;
+
+/**
+ * Generates replies resembling the ones of sequencing.com backend
+ */
+public class Payloads
+{
+	/**
+	 * Returns token endpoint reply
+	 */
+	public static String tokenResponse(long lifetime) {
+		return tokenResponse("4ad9ae2b1bcf9d7b7d3d2c9f1e6e3f5d8f0e7a21", "b8e1e6f6c0c3b1b57e2d0f6e0a9d4c3b2a1f0e9d", lifetime);
+	}
+
+	/**
+	 * Returns token endpoint reply with given tokens
+	 */
+	public static String tokenResponse(String accessToken, String refreshToken, long lifetime)
+	{
+		return "{\"access_token\":\"" + accessToken + "\","
+				+ "\"expires_in\":" + lifetime + ","
+				+ "\"token_type\":\"Bearer\","
+				+ "\"scope\":\"demo\","
+				+ "\"refresh_token\":\"" + refreshToken + "\"}";
+	}
+
+	/**
+	 * Returns DataSourceList reply listing given number of files
+	 */
+	public static String dataSourceList(int fileCount)
+	{
+		StringBuilder builder = new StringBuilder(fileCount * 360 + 2);
+		builder.append('[');
+		for (int i = 0; i < fileCount; i++) {
+			if (i > 0)
+				builder.append(',');
+			builder.append("{\"DateAdded\":\"2016-03-14T09:26:53\",")
+				.append("\"Ext\":\"vcf.gz\",")
+				.append("\"FileCategory\":\"Uploaded\",")
+				.append("\"FileSubType\":\"Genome\",")
+				.append("\"FileType\":\"Genotype\",")
+				.append("\"FriendlyDesc1\":\"Whole genome sequence ").append(i).append("\",")
+				.append("\"FriendlyDesc2\":\"Uploaded by user, reference GRCh37\",")
+				.append("\"Id\":\"").append(100000 + i).append("\",")
+				.append("\"Name\":\"genome_").append(i).append(".vcf.gz\",")
+				.append("\"Population\":null,")
+				.append("\"RefVersion\":\"GRCh37\",")
+				.append("\"Sex\":\"Female\"}");
+		}
+		builder.append(']');
+		return builder.toString();
+	}
+}
@@ -0,0 +1,374 @@
+package com.sequencing.oauth.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded local stand-in for sequencing.com token and DataSourceList endpoints.
+ * Latency, error rate, token lifetime and listing size are configurable, see
+ * {@link Settings}. Server threads are not held while replies are delayed.
+ */
+public class StubServer
+{
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static {
+		// otherwise Nagle's algorithm adds ~40ms to every reply
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final Settings settings;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService timer;
+	private final byte[] tokenResponse;
+
+	/**
+	 * Access tokens issued so far with their expiration time, kept only
+	 * when tokens are validated
+	 */
+	private final ConcurrentMap<String, Long> accessTokens = new ConcurrentHashMap<String, Long>();
+	private final AtomicLong tokenSequence = new AtomicLong();
+
+	private final AtomicLong tokenRequestCount = new AtomicLong();
+	private final AtomicLong fileRequestCount = new AtomicLong();
+	private final AtomicLong injectedErrorCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	public StubServer(int fileCount) throws IOException {
+		this(new Settings().withFileCount(fileCount));
+	}
+
+	public StubServer(Settings settings) throws IOException
+	{
+		this.settings = settings;
+		tokenResponse = Payloads.tokenResponse(settings.tokenLifetime).getBytes(UTF_8);
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext("/oauth2/token", new TokenReply());
+		server.createContext("/DataSourceList", new FilesReply(Payloads.dataSourceList(settings.fileCount).getBytes(UTF_8)));
+		executor = Executors.newFixedThreadPool(settings.threads);
+		server.setExecutor(executor);
+		timer = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Returns base URL of the server, usable as API URI
+	 */
+	public String getBaseUri() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns URL of token endpoint
+	 */
+	public String getTokenUri() {
+		return getBaseUri() + "/oauth2/token";
+	}
+
+	public long getTokenRequestCount() {
+		return tokenRequestCount.get();
+	}
+
+	public long getFileRequestCount() {
+		return fileRequestCount.get();
+	}
+
+	/**
+	 * Returns number of requests failed on purpose as error rate dictates
+	 */
+	public long getInjectedErrorCount() {
+		return injectedErrorCount.get();
+	}
+
+	/**
+	 * Returns number of DataSourceList requests rejected for unknown or expired token
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Stub behaviour, defaults reply at once without errors
+	 */
+	public static class Settings
+	{
+		private int fileCount = 10;
+		private long tokenLifetime = 3600;
+		private long latency;
+		private long latencyJitter;
+		private double errorRate;
+		private int errorStatus = 503;
+		private boolean validateTokens;
+		private int threads = 8;
+
+		/**
+		 * Number of files in DataSourceList reply
+		 */
+		public Settings withFileCount(int fileCount) {
+			this.fileCount = fileCount;
+			return this;
+		}
+
+		/**
+		 * Lifetime of issued access tokens, in seconds
+		 */
+		public Settings withTokenLifetime(long tokenLifetime) {
+			this.tokenLifetime = tokenLifetime;
+			return this;
+		}
+
+		/**
+		 * Minimum delay of every reply, in milliseconds
+		 */
+		public Settings withLatency(long latency) {
+			this.latency = latency;
+			return this;
+		}
+
+		/**
+		 * Maximum random delay added to latency, in milliseconds
+		 */
+		public Settings withLatencyJitter(long latencyJitter) {
+			this.latencyJitter = latencyJitter;
+			return this;
+		}
+
+		/**
+		 * Share of requests, between 0 and 1, failed with error status
+		 */
+		public Settings withErrorRate(double errorRate) {
+			this.errorRate = errorRate;
+			return this;
+		}
+
+		/**
+		 * HTTP status of injected errors
+		 */
+		public Settings withErrorStatus(int errorStatus) {
+			this.errorStatus = errorStatus;
+			return this;
+		}
+
+		/**
+		 * Whether tokens are issued unique and DataSourceList rejects unknown
+		 * or expired ones with 401, as the real backend does
+		 */
+		public Settings withTokenValidation(boolean validateTokens) {
+			this.validateTokens = validateTokens;
+			return this;
+		}
+
+		/**
+		 * Number of server threads
+		 */
+		public Settings withThreads(int threads) {
+			this.threads = threads;
+			return this;
+		}
+	}
+
+	/**
+	 * Base of endpoint handlers: injects errors and delays replies
+	 */
+	abstract class Reply implements HttpHandler
+	{
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException
+		{
+			final String body = drain(exchange);
+			count();
+
+			long delay = settings.latency;
+			if (settings.latencyJitter > 0)
+				delay += ThreadLocalRandom.current().nextLong(settings.latencyJitter + 1);
+
+			if (delay <= 0) {
+				reply(exchange, body);
+				return;
+			}
+
+			final Runnable delayed = new Runnable() {
+				public void run() {
+					try {
+						reply(exchange, body);
+					} catch (IOException e) {
+						exchange.close();
+					}
+				}
+			};
+			// Timer only waits, replies are written by server threads
+			timer.schedule(new Runnable() {
+				public void run() {
+					executor.execute(delayed);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		private void reply(HttpExchange exchange, String body) throws IOException
+		{
+			if (settings.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+				injectedErrorCount.incrementAndGet();
+				send(exchange, settings.errorStatus, null);
+				return;
+			}
+			respond(exchange, body);
+		}
+
+		abstract void count();
+
+		abstract void respond(HttpExchange exchange, String body) throws IOException;
+	}
+
+	class TokenReply extends Reply
+	{
+		@Override
+		void count() {
+			tokenRequestCount.incrementAndGet();
+		}
+
+		@Override
+		void respond(HttpExchange exchange, String body) throws IOException
+		{
+			if (settings.validateTokens == false) {
+				send(exchange, 200, tokenResponse);
+				return;
+			}
+
+			String refreshToken = getFormParameter(body, "refresh_token");
+			if (refreshToken == null)
+				refreshToken = "rt-" + tokenSequence.incrementAndGet();
+			String accessToken = "at-" + tokenSequence.incrementAndGet();
+			accessTokens.put(accessToken, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(settings.tokenLifetime));
+
+			send(exchange, 200, Payloads.tokenResponse(accessToken, refreshToken, settings.tokenLifetime).getBytes(UTF_8));
+		}
+	}
+
+	/**
+	 * Replies with the same listing every time, gzipped if client accepts it
+	 */
+	class FilesReply extends Reply
+	{
+		private final byte[] body;
+		private final byte[] gzippedBody;
+
+		FilesReply(byte[] body) throws IOException {
+			this.body = body;
+			this.gzippedBody = gzip(body);
+		}
+
+		@Override
+		void count() {
+			fileRequestCount.incrementAndGet();
+		}
+
+		@Override
+		void respond(HttpExchange exchange, String request) throws IOException
+		{
+			if (settings.validateTokens && isAuthorized(exchange) == false) {
+				rejectedCount.incrementAndGet();
+				send(exchange, 401, null);
+				return;
+			}
+
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				send(exchange, 200, gzippedBody);
+			} else {
+				send(exchange, 200, body);
+			}
+		}
+
+		private boolean isAuthorized(HttpExchange exchange)
+		{
+			String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			if (authorization == null || authorization.startsWith("Bearer ") == false)
+				return false;
+
+			Long expirationTime = accessTokens.get(authorization.substring("Bearer ".length()));
+			return expirationTime != null && expirationTime > System.currentTimeMillis();
+		}
+	}
+
+	static void send(HttpExchange exchange, int status, byte[] body) throws IOException
+	{
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+
+		exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	static String getFormParameter(String body, String name)
+	{
+		for (String pair : body.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0 && pair.substring(0, eq).equals(name)) {
+				try {
+					return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+				} catch (IOException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	static byte[] gzip(byte[] body) throws IOException
+	{
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(result);
+		out.write(body);
+		out.close();
+		return result.toByteArray();
+	}
+
+	/**
+	 * Reads request body, connection is dropped if it is left unread
+	 */
+	static String drain(HttpExchange exchange) throws IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = exchange.getRequestBody().read(buffer)) != -1)
+			body.write(buffer, 0, read);
+		exchange.getRequestBody().close();
+		return new String(body.toByteArray(), UTF_8);
+	}
+}
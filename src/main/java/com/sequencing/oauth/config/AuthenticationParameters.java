@@ -1,13 +1,9 @@
 package com.sequencing.oauth.config;
 
 import java.io.Serializable;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.SecureRandom;
 
-import org.apache.commons.codec.binary.Hex;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.sequencing.oauth.helper.HttpTransports;
+import com.sequencing.oauth.helper.StateGenerator;
 
 /**
  * Defines all required configuration parameters needed to carry on authentication
@@ -23,8 +19,36 @@ public class AuthenticationParameters implements Serializable
 	public static final String DEFAULT_SCOPE = "demo"; 
 	public static final String DEFAULT_GRANT_TYPE = "authorization_code";
 	public static final String DEFAULT_GRANT_TYPE_REFRESH = "refresh_token"; 
-	
-	private static final Logger log = LoggerFactory.getLogger(AuthenticationParameters.class);
+	public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+	public static final long DEFAULT_KEEP_ALIVE = 30;
+	public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT = 60;
+	public static final int DEFAULT_CONNECT_TIMEOUT = -1;
+	public static final int DEFAULT_SOCKET_TIMEOUT = -1;
+	public static final int DEFAULT_IO_THREADS = 2;
+	public static final int DEFAULT_REFRESH_THREADS = 4;
+	public static final long DEFAULT_REFRESH_TICK_DURATION = 1000;
+	public static final long DEFAULT_SAMPLE_FILES_CACHE_TTL = 0;
+	public static final long DEFAULT_SAMPLE_FILES_STALE_TTL = 3600;
+	public static final long DEFAULT_PERSISTED_SAMPLE_FILES_CACHE_TTL = 300;
+	public static final long DEFAULT_OWN_FILES_CACHE_TTL = 60;
+	public static final long DEFAULT_OWN_FILES_CACHE_MAX_WEIGHT = 64L * 1024 * 1024;
+	public static final long DEFAULT_LOGIN_STATE_TTL = 600;
+	public static final int DEFAULT_MAX_PENDING_LOGINS = 100000;
+	public static final long DEFAULT_TOKEN_STORE_FLUSH_INTERVAL = 1000;
+	public static final int DEFAULT_TOKEN_STORE_BATCH_SIZE = 1000;
+	public static final int DEFAULT_RETRY_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_RETRY_BASE_DELAY = 100;
+	public static final long DEFAULT_RETRY_MAX_DELAY = 5000;
+	public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30000;
+	public static final int DEFAULT_BULK_FETCH_PARALLELISM = 32;
+	public static final String DEFAULT_HTTP_TRANSPORT = HttpTransports.APACHE;
+	public static final int DEFAULT_REFRESH_BUDGET = 100;
+	public static final long DEFAULT_REFRESH_AHEAD_WINDOW = 300;
+	public static final int DEFAULT_WARM_UP_CONNECTIONS = 0;
+	public static final String DEFAULT_SAMPLE_FILES_CACHE_FILE = null;
+	public static final boolean DEFAULT_ACCEPT_STATIC_STATE = false;
 
 	/**
 	 * URI of Sequencing oAuth2 where you can request user to authorize your
@@ -90,6 +114,171 @@ public class AuthenticationParameters implements Serializable
 	 */
 	private final String grantTypeRefreshToken;
 
+	/**
+	 * Maximum number of pooled HTTP connections in total.
+	 */
+	private final int maxConnectionsTotal;
+
+	/**
+	 * Maximum number of pooled HTTP connections per host.
+	 */
+	private final int maxConnectionsPerRoute;
+
+	/**
+	 * How long, in seconds, an idle connection is kept for reuse when
+	 * server does not send Keep-Alive header itself.
+	 */
+	private final long keepAlive;
+
+	/**
+	 * How long, in seconds, a connection may stay idle in the pool
+	 * before it gets evicted and closed.
+	 */
+	private final long idleConnectionTimeout;
+
+	/**
+	 * Connect timeout in milliseconds, -1 means system default.
+	 */
+	private final int connectTimeout;
+
+	/**
+	 * Socket read timeout in milliseconds, -1 means system default.
+	 */
+	private final int socketTimeout;
+
+	/**
+	 * Number of I/O dispatcher threads serving asynchronous requests.
+	 */
+	private final int ioThreads;
+
+	/**
+	 * Number of worker threads carrying out scheduled token refreshes.
+	 */
+	private final int refreshThreads;
+
+	/**
+	 * Precision, in milliseconds, of token refresh scheduling.
+	 */
+	private final long refreshTickDuration;
+
+	/**
+	 * How long, in seconds, sample files are served from process-wide cache
+	 * without asking backend. 0 disables the cache, unless sampleFilesCacheFile
+	 * is set, which uses DEFAULT_PERSISTED_SAMPLE_FILES_CACHE_TTL then.
+	 */
+	private final long sampleFilesCacheTtl;
+
+	/**
+	 * How long, in seconds, after cache TTL has passed sample files may still
+	 * be served while they are being revalidated in background.
+	 */
+	private final long sampleFilesStaleTtl;
+
+	/**
+	 * How long, in seconds, own files listing of a user stays in OwnFilesCache.
+	 */
+	private final long ownFilesCacheTtl;
+
+	/**
+	 * Approximate heap size, in bytes, OwnFilesCache may occupy in total.
+	 */
+	private final long ownFilesCacheMaxWeight;
+
+	/**
+	 * How long, in seconds, state issued for a login redirect stays valid.
+	 */
+	private final long loginStateTtl;
+
+	/**
+	 * Maximum number of login states waiting for authorization callback.
+	 * Oldest ones are dropped when the limit is reached.
+	 */
+	private final int maxPendingLogins;
+
+	/**
+	 * How often write-behind token store persists pending tokens, in milliseconds,
+	 * zero or less writes them through right away
+	 */
+	private final long tokenStoreFlushInterval;
+
+	/**
+	 * Number of pending tokens that makes write-behind token store persist
+	 * them before flush interval elapses
+	 */
+	private final int tokenStoreBatchSize;
+
+	/**
+	 * Maximum number of attempts of a request to sequencing.com, 1 disables retries
+	 */
+	private final int retryMaxAttempts;
+
+	/**
+	 * Delay before the first retry in milliseconds, doubled on every subsequent one
+	 */
+	private final long retryBaseDelay;
+
+	/**
+	 * Maximum delay between retries in milliseconds. Request is not retried
+	 * if server asks to wait longer than that with Retry-After header
+	 */
+	private final long retryMaxDelay;
+
+	/**
+	 * Number of consecutive failures of an endpoint that makes requests to it
+	 * fail fast, 0 disables circuit breaker
+	 */
+	private final int circuitBreakerFailureThreshold;
+
+	/**
+	 * How long requests to failing endpoint fail fast before a trial request
+	 * is let through, in milliseconds
+	 */
+	private final long circuitBreakerOpenDuration;
+
+	/**
+	 * Maximum number of users whose files are fetched concurrently by
+	 * BulkFileMetadataFetcher
+	 */
+	private final int bulkFetchParallelism;
+
+	/**
+	 * HTTP client library requests are executed with, either
+	 * HttpTransports.APACHE or HttpTransports.JDK
+	 */
+	private final String httpTransport;
+
+	/**
+	 * Maximum number of scheduled token refreshes started per second by all
+	 * clients together, 0 for no limit. Refreshes of tokens closest to
+	 * expiry go first when budget is exhausted.
+	 */
+	private final int refreshBudget;
+
+	/**
+	 * How far, in seconds, scheduled refreshes are spread before the usual
+	 * refresh time, so that tokens issued together are not refreshed together
+	 */
+	private final long refreshAheadWindow;
+
+	/**
+	 * Number of connections opened to each of token and API hosts in the
+	 * background once HTTP helper is configured, 0 disables warm-up
+	 */
+	private final int warmUpConnections;
+
+	/**
+	 * Path of file sample files are kept in between application restarts,
+	 * setting it enables the sample files cache, null keeps them in memory only
+	 */
+	private final String sampleFilesCacheFile;
+
+	/**
+	 * Whether state of the configuration is accepted in authorization callback
+	 * besides single-use states issued per login, for applications that build
+	 * login redirects on their own. Static state can be replayed, keep it off
+	 */
+	private final boolean acceptStaticState;
+
 	private AuthenticationParameters(ConfigurationBuilder builder) {
 		oAuthAuthorizationUri = builder.oAuthAuthorizationUri;
 		oAuthTokenUri = builder.oAuthTokenUri;
@@ -102,6 +291,35 @@ public class AuthenticationParameters implements Serializable
 		scope = builder.scope;
 		grantType = builder.grantType;
 		grantTypeRefreshToken = builder.grantTypeRefreshToken;
+		maxConnectionsTotal = builder.maxConnectionsTotal;
+		maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+		keepAlive = builder.keepAlive;
+		idleConnectionTimeout = builder.idleConnectionTimeout;
+		connectTimeout = builder.connectTimeout;
+		socketTimeout = builder.socketTimeout;
+		ioThreads = builder.ioThreads;
+		refreshThreads = builder.refreshThreads;
+		refreshTickDuration = builder.refreshTickDuration;
+		sampleFilesCacheTtl = builder.sampleFilesCacheTtl;
+		sampleFilesStaleTtl = builder.sampleFilesStaleTtl;
+		ownFilesCacheTtl = builder.ownFilesCacheTtl;
+		ownFilesCacheMaxWeight = builder.ownFilesCacheMaxWeight;
+		loginStateTtl = builder.loginStateTtl;
+		maxPendingLogins = builder.maxPendingLogins;
+		tokenStoreFlushInterval = builder.tokenStoreFlushInterval;
+		tokenStoreBatchSize = builder.tokenStoreBatchSize;
+		retryMaxAttempts = builder.retryMaxAttempts;
+		retryBaseDelay = builder.retryBaseDelay;
+		retryMaxDelay = builder.retryMaxDelay;
+		circuitBreakerFailureThreshold = builder.circuitBreakerFailureThreshold;
+		circuitBreakerOpenDuration = builder.circuitBreakerOpenDuration;
+		bulkFetchParallelism = builder.bulkFetchParallelism;
+		httpTransport = builder.httpTransport;
+		refreshBudget = builder.refreshBudget;
+		refreshAheadWindow = builder.refreshAheadWindow;
+		warmUpConnections = builder.warmUpConnections;
+		sampleFilesCacheFile = builder.sampleFilesCacheFile;
+		acceptStaticState = builder.acceptStaticState;
 	}
 
 	public static class ConfigurationBuilder {
@@ -117,6 +335,35 @@ public class AuthenticationParameters implements Serializable
 		private String scope;
 		private String grantType;
 		private String grantTypeRefreshToken;
+		private int maxConnectionsTotal;
+		private int maxConnectionsPerRoute;
+		private long keepAlive;
+		private long idleConnectionTimeout;
+		private int connectTimeout;
+		private int socketTimeout;
+		private int ioThreads;
+		private int refreshThreads;
+		private long refreshTickDuration;
+		private long sampleFilesCacheTtl;
+		private long sampleFilesStaleTtl;
+		private long ownFilesCacheTtl;
+		private long ownFilesCacheMaxWeight;
+		private long loginStateTtl;
+		private int maxPendingLogins;
+		private long tokenStoreFlushInterval;
+		private int tokenStoreBatchSize;
+		private int retryMaxAttempts;
+		private long retryBaseDelay;
+		private long retryMaxDelay;
+		private int circuitBreakerFailureThreshold;
+		private long circuitBreakerOpenDuration;
+		private int bulkFetchParallelism;
+		private String httpTransport;
+		private int refreshBudget;
+		private long refreshAheadWindow;
+		private int warmUpConnections;
+		private String sampleFilesCacheFile;
+		private boolean acceptStaticState;
 
 		public ConfigurationBuilder()
 		{
@@ -128,6 +375,35 @@ public class AuthenticationParameters implements Serializable
 				.withScope(DEFAULT_SCOPE)
 				.withGrantType(DEFAULT_GRANT_TYPE)
 				.withGrantTypeRefreshToken(DEFAULT_GRANT_TYPE_REFRESH)
+				.withMaxConnectionsTotal(DEFAULT_MAX_CONNECTIONS_TOTAL)
+				.withMaxConnectionsPerRoute(DEFAULT_MAX_CONNECTIONS_PER_ROUTE)
+				.withKeepAlive(DEFAULT_KEEP_ALIVE)
+				.withIdleConnectionTimeout(DEFAULT_IDLE_CONNECTION_TIMEOUT)
+				.withConnectTimeout(DEFAULT_CONNECT_TIMEOUT)
+				.withSocketTimeout(DEFAULT_SOCKET_TIMEOUT)
+				.withIoThreads(DEFAULT_IO_THREADS)
+				.withRefreshThreads(DEFAULT_REFRESH_THREADS)
+				.withRefreshTickDuration(DEFAULT_REFRESH_TICK_DURATION)
+				.withSampleFilesCacheTtl(DEFAULT_SAMPLE_FILES_CACHE_TTL)
+				.withSampleFilesStaleTtl(DEFAULT_SAMPLE_FILES_STALE_TTL)
+				.withOwnFilesCacheTtl(DEFAULT_OWN_FILES_CACHE_TTL)
+				.withOwnFilesCacheMaxWeight(DEFAULT_OWN_FILES_CACHE_MAX_WEIGHT)
+				.withLoginStateTtl(DEFAULT_LOGIN_STATE_TTL)
+				.withMaxPendingLogins(DEFAULT_MAX_PENDING_LOGINS)
+				.withTokenStoreFlushInterval(DEFAULT_TOKEN_STORE_FLUSH_INTERVAL)
+				.withTokenStoreBatchSize(DEFAULT_TOKEN_STORE_BATCH_SIZE)
+				.withRetryMaxAttempts(DEFAULT_RETRY_MAX_ATTEMPTS)
+				.withRetryBaseDelay(DEFAULT_RETRY_BASE_DELAY)
+				.withRetryMaxDelay(DEFAULT_RETRY_MAX_DELAY)
+				.withCircuitBreakerFailureThreshold(DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD)
+				.withCircuitBreakerOpenDuration(DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION)
+				.withBulkFetchParallelism(DEFAULT_BULK_FETCH_PARALLELISM)
+				.withHttpTransport(DEFAULT_HTTP_TRANSPORT)
+				.withRefreshBudget(DEFAULT_REFRESH_BUDGET)
+				.withRefreshAheadWindow(DEFAULT_REFRESH_AHEAD_WINDOW)
+				.withWarmUpConnections(DEFAULT_WARM_UP_CONNECTIONS)
+				.withSampleFilesCacheFile(DEFAULT_SAMPLE_FILES_CACHE_FILE)
+				.withAcceptStaticState(DEFAULT_ACCEPT_STATIC_STATE)
 				.withState(nextState());
 		}
 
@@ -186,29 +462,161 @@ public class AuthenticationParameters implements Serializable
 			return this;
 		}
 
+		public ConfigurationBuilder withMaxConnectionsTotal(int maxConnectionsTotal) {
+			this.maxConnectionsTotal = maxConnectionsTotal;
+			return this;
+		}
+
+		public ConfigurationBuilder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+			this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+			return this;
+		}
+
+		public ConfigurationBuilder withKeepAlive(long keepAlive) {
+			this.keepAlive = keepAlive;
+			return this;
+		}
+
+		public ConfigurationBuilder withIdleConnectionTimeout(long idleConnectionTimeout) {
+			this.idleConnectionTimeout = idleConnectionTimeout;
+			return this;
+		}
+
+		public ConfigurationBuilder withConnectTimeout(int connectTimeout) {
+			this.connectTimeout = connectTimeout;
+			return this;
+		}
+
+		public ConfigurationBuilder withSocketTimeout(int socketTimeout) {
+			this.socketTimeout = socketTimeout;
+			return this;
+		}
+
+		public ConfigurationBuilder withIoThreads(int ioThreads) {
+			this.ioThreads = ioThreads;
+			return this;
+		}
+
+		public ConfigurationBuilder withRefreshThreads(int refreshThreads) {
+			this.refreshThreads = refreshThreads;
+			return this;
+		}
+
+		public ConfigurationBuilder withRefreshTickDuration(long refreshTickDuration) {
+			this.refreshTickDuration = refreshTickDuration;
+			return this;
+		}
+
+		public ConfigurationBuilder withSampleFilesCacheTtl(long sampleFilesCacheTtl) {
+			this.sampleFilesCacheTtl = sampleFilesCacheTtl;
+			return this;
+		}
+
+		public ConfigurationBuilder withSampleFilesStaleTtl(long sampleFilesStaleTtl) {
+			this.sampleFilesStaleTtl = sampleFilesStaleTtl;
+			return this;
+		}
+
+		public ConfigurationBuilder withOwnFilesCacheTtl(long ownFilesCacheTtl) {
+			this.ownFilesCacheTtl = ownFilesCacheTtl;
+			return this;
+		}
+
+		public ConfigurationBuilder withOwnFilesCacheMaxWeight(long ownFilesCacheMaxWeight) {
+			this.ownFilesCacheMaxWeight = ownFilesCacheMaxWeight;
+			return this;
+		}
+
+		public ConfigurationBuilder withLoginStateTtl(long loginStateTtl) {
+			this.loginStateTtl = loginStateTtl;
+			return this;
+		}
+
+		public ConfigurationBuilder withMaxPendingLogins(int maxPendingLogins) {
+			this.maxPendingLogins = maxPendingLogins;
+			return this;
+		}
+
+		public ConfigurationBuilder withTokenStoreFlushInterval(long tokenStoreFlushInterval) {
+			this.tokenStoreFlushInterval = tokenStoreFlushInterval;
+			return this;
+		}
+
+		public ConfigurationBuilder withTokenStoreBatchSize(int tokenStoreBatchSize) {
+			this.tokenStoreBatchSize = tokenStoreBatchSize;
+			return this;
+		}
+
+		public ConfigurationBuilder withRetryMaxAttempts(int retryMaxAttempts) {
+			this.retryMaxAttempts = retryMaxAttempts;
+			return this;
+		}
+
+		public ConfigurationBuilder withRetryBaseDelay(long retryBaseDelay) {
+			this.retryBaseDelay = retryBaseDelay;
+			return this;
+		}
+
+		public ConfigurationBuilder withRetryMaxDelay(long retryMaxDelay) {
+			this.retryMaxDelay = retryMaxDelay;
+			return this;
+		}
+
+		public ConfigurationBuilder withCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+			this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+			return this;
+		}
+
+		public ConfigurationBuilder withCircuitBreakerOpenDuration(long circuitBreakerOpenDuration) {
+			this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+			return this;
+		}
+
+		public ConfigurationBuilder withBulkFetchParallelism(int bulkFetchParallelism) {
+			this.bulkFetchParallelism = bulkFetchParallelism;
+			return this;
+		}
+
+		public ConfigurationBuilder withHttpTransport(String httpTransport) {
+			this.httpTransport = httpTransport;
+			return this;
+		}
+
+		public ConfigurationBuilder withRefreshBudget(int refreshBudget) {
+			this.refreshBudget = refreshBudget;
+			return this;
+		}
+
+		public ConfigurationBuilder withRefreshAheadWindow(long refreshAheadWindow) {
+			this.refreshAheadWindow = refreshAheadWindow;
+			return this;
+		}
+
+		public ConfigurationBuilder withWarmUpConnections(int warmUpConnections) {
+			this.warmUpConnections = warmUpConnections;
+			return this;
+		}
+
+		public ConfigurationBuilder withSampleFilesCacheFile(String sampleFilesCacheFile) {
+			this.sampleFilesCacheFile = sampleFilesCacheFile;
+			return this;
+		}
+
+		public ConfigurationBuilder withAcceptStaticState(boolean acceptStaticState) {
+			this.acceptStaticState = acceptStaticState;
+			return this;
+		}
+
 		public AuthenticationParameters build() {
 			return new AuthenticationParameters(this);
 		}
 
 		/**
-		 * Returns MD5 hash from random string
+		 * Returns random string
 		 */
 		public String nextState()
 		{
-			SecureRandom random = new SecureRandom();
-			String randomStr = new BigInteger(130, random).toString(32);
-			
-			MessageDigest messageDigest;
-			byte[] resultByte = null;
-			try {
-				messageDigest = MessageDigest.getInstance("MD5");
-				messageDigest.update(randomStr.getBytes("UTF8"));
-				resultByte = messageDigest.digest();
-			} catch (Exception e) {
-				log.debug("Error generate md5 hash code", e);
-				e.printStackTrace();
-			}
-			return new String(Hex.encodeHex(resultByte));
+			return StateGenerator.nextState();
 		}
 	}
 
@@ -255,4 +663,120 @@ public class AuthenticationParameters implements Serializable
 	public String getGrantTypeRefreshToken() {
 		return grantTypeRefreshToken;
 	}
+
+	public int getMaxConnectionsTotal() {
+		return maxConnectionsTotal;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	public long getIdleConnectionTimeout() {
+		return idleConnectionTimeout;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getSocketTimeout() {
+		return socketTimeout;
+	}
+
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	public int getRefreshThreads() {
+		return refreshThreads;
+	}
+
+	public long getRefreshTickDuration() {
+		return refreshTickDuration;
+	}
+
+	public long getSampleFilesCacheTtl() {
+		return sampleFilesCacheTtl;
+	}
+
+	public long getSampleFilesStaleTtl() {
+		return sampleFilesStaleTtl;
+	}
+
+	public long getOwnFilesCacheTtl() {
+		return ownFilesCacheTtl;
+	}
+
+	public long getOwnFilesCacheMaxWeight() {
+		return ownFilesCacheMaxWeight;
+	}
+
+	public long getLoginStateTtl() {
+		return loginStateTtl;
+	}
+
+	public int getMaxPendingLogins() {
+		return maxPendingLogins;
+	}
+
+	public long getTokenStoreFlushInterval() {
+		return tokenStoreFlushInterval;
+	}
+
+	public int getTokenStoreBatchSize() {
+		return tokenStoreBatchSize;
+	}
+
+	public int getRetryMaxAttempts() {
+		return retryMaxAttempts;
+	}
+
+	public long getRetryBaseDelay() {
+		return retryBaseDelay;
+	}
+
+	public long getRetryMaxDelay() {
+		return retryMaxDelay;
+	}
+
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold;
+	}
+
+	public long getCircuitBreakerOpenDuration() {
+		return circuitBreakerOpenDuration;
+	}
+
+	public int getBulkFetchParallelism() {
+		return bulkFetchParallelism;
+	}
+
+	public String getHttpTransport() {
+		return httpTransport;
+	}
+
+	public int getRefreshBudget() {
+		return refreshBudget;
+	}
+
+	public long getRefreshAheadWindow() {
+		return refreshAheadWindow;
+	}
+
+	public int getWarmUpConnections() {
+		return warmUpConnections;
+	}
+
+	public String getSampleFilesCacheFile() {
+		return sampleFilesCacheFile;
+	}
+
+	public boolean isAcceptStaticState() {
+		return acceptStaticState;
+	}
 }
@@ -0,0 +1,75 @@
+package com.sequencing.oauth.config;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.sequencing.oauth.store.TokenStore;
+
+/**
+ * Configurations of the application by client id. Clients replicated from
+ * another node in serialized form refer to their configuration by client id
+ * only and look it up here, so every node has to register the same
+ * configuration before sessions are restored. Clients register their
+ * configuration, and token store if they are given one, when they are created.
+ */
+public class ConfigurationRegistry
+{
+	private static final ConcurrentMap<String, AuthenticationParameters> configurations =
+			new ConcurrentHashMap<String, AuthenticationParameters>();
+
+	private static final ConcurrentMap<String, TokenStore> tokenStores = new ConcurrentHashMap<String, TokenStore>();
+
+	/**
+	 * Registers configuration under its client id, replacing the one
+	 * registered before
+	 */
+	public static void register(AuthenticationParameters parameters)
+	{
+		if (parameters.getClientId() != null)
+			configurations.put(parameters.getClientId(), parameters);
+	}
+
+	/**
+	 * Registers configuration unless one with the same client id is registered already
+	 */
+	public static void registerIfAbsent(AuthenticationParameters parameters)
+	{
+		if (parameters.getClientId() != null)
+			configurations.putIfAbsent(parameters.getClientId(), parameters);
+	}
+
+	/**
+	 * Returns configuration registered under given client id or null if there is none
+	 */
+	public static AuthenticationParameters get(String clientId) {
+		return clientId != null ? configurations.get(clientId) : null;
+	}
+
+	/**
+	 * Drops configuration registered under given client id
+	 */
+	public static void unregister(String clientId)
+	{
+		if (clientId != null) {
+			configurations.remove(clientId);
+			tokenStores.remove(clientId);
+		}
+	}
+
+	/**
+	 * Registers token store clients of given client id keep tokens in,
+	 * replacing the one registered before
+	 */
+	public static void registerTokenStore(String clientId, TokenStore tokenStore)
+	{
+		if (clientId != null && tokenStore != null)
+			tokenStores.put(clientId, tokenStore);
+	}
+
+	/**
+	 * Returns token store registered under given client id or null if there is none
+	 */
+	public static TokenStore getTokenStore(String clientId) {
+		return clientId != null ? tokenStores.get(clientId) : null;
+	}
+}
@@ -0,0 +1,34 @@
+package com.sequencing.oauth.core;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of SequencingFileMetadataApi. Returned futures complete
+ * exceptionally with NonAuthorizedException when client is not authorized.
+ */
+public interface AsyncSequencingFileMetadataApi {
+	/**
+	 * Returns sample files from sequencing.com
+	 * @return future of String json of file content
+	 */
+	public CompletableFuture<String> getSampleFiles();
+
+	/**
+	 * Returns own files from sequencing.com
+	 * @return future of String json of file content
+	 */
+	public CompletableFuture<String> getOwnFiles();
+
+	/**
+	 * Returns sample files from sequencing.com
+	 * @return future of List of file metadata
+	 */
+	public CompletableFuture<List<FileMetadata>> getSampleFileMetadata();
+
+	/**
+	 * Returns own files from sequencing.com
+	 * @return future of List of file metadata
+	 */
+	public CompletableFuture<List<FileMetadata>> getOwnFileMetadata();
+}
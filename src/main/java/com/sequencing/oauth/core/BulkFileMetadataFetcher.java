@@ -0,0 +1,322 @@
+package com.sequencing.oauth.core;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Fetches file listings of many users in parallel, e.g. in a batch job that
+ * goes over stored tokens. At most bulkFetchParallelism users are processed at
+ * a time, on virtual threads when JVM supports them and on a fixed pool otherwise.
+ * Tokens are taken from input only as results are consumed, so memory use does
+ * not depend on input size. Failure of a single user does not abort the batch.
+ * Results have to be closed unless they are read to the end, e.g. in a
+ * try-with-resources block, or workers of the batch wait for them to be read
+ * until the fetcher is closed.
+ */
+public class BulkFileMetadataFetcher implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(BulkFileMetadataFetcher.class);
+
+	/**
+	 * How often blocked workers check whether results are still wanted, in milliseconds
+	 */
+	private static final long OFFER_TIMEOUT = 100;
+
+	private final AuthenticationParameters parameters;
+	private final int parallelism;
+	private final ExecutorService executor;
+	private final Set<Results<?>> running = Collections.newSetFromMap(new ConcurrentHashMap<Results<?>, Boolean>());
+
+	public BulkFileMetadataFetcher(AuthenticationParameters parameters)
+	{
+		this.parameters = parameters;
+		this.parallelism = Math.max(parameters.getBulkFetchParallelism(), 1);
+		this.executor = createExecutor(parallelism);
+	}
+
+	/**
+	 * Fetches own files of every token owner
+	 * @return results in order of completion
+	 */
+	public Results<String> fetchOwnFiles(Iterable<Token> tokens)
+	{
+		return fetch(tokens, new Fetch<String>() {
+			public CompletableFuture<String> fetch(AsyncSequencingFileMetadataApi api) {
+				return api.getOwnFiles();
+			}
+		});
+	}
+
+	/**
+	 * Fetches own file metadata of every token owner
+	 * @return results in order of completion
+	 */
+	public Results<List<FileMetadata>> fetchOwnFileMetadata(Iterable<Token> tokens)
+	{
+		return fetch(tokens, new Fetch<List<FileMetadata>>() {
+			public CompletableFuture<List<FileMetadata>> fetch(AsyncSequencingFileMetadataApi api) {
+				return api.getOwnFileMetadata();
+			}
+		});
+	}
+
+	/**
+	 * Stops worker threads. Batches still running are abandoned and their
+	 * results end.
+	 */
+	@Override
+	public void close()
+	{
+		executor.shutdownNow();
+		for (Results<?> results : running)
+			results.close();
+	}
+
+	private <T> Results<T> fetch(Iterable<Token> tokens, Fetch<T> fetch)
+	{
+		Results<T> results = new Results<T>(tokens.iterator(), fetch);
+		running.add(results);
+		results.producer.start();
+		return results;
+	}
+
+	/**
+	 * Fetches listing of a single user, refreshing token if needed
+	 */
+	private <T> Result<T> fetchOne(Token token, Fetch<T> fetch)
+	{
+		DefaultSequencingOAuth2Client client = new DefaultSequencingOAuth2Client(parameters, token);
+		try {
+			T value = fetch.fetch(new DefaultAsyncSequencingFileMetadataApi(client)).get();
+			return new Result<T>(token, client.getToken(), value, null);
+		} catch (ExecutionException e) {
+			return new Result<T>(token, client.getToken(), null, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Result<T>(token, client.getToken(), null, e);
+		} catch (RuntimeException e) {
+			return new Result<T>(token, client.getToken(), null, e);
+		} finally {
+			client.stopTokenRefresh();
+		}
+	}
+
+	/**
+	 * Uses virtual thread per task executor when running on Java 21 or later
+	 */
+	private static ExecutorService createExecutor(int parallelism)
+	{
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			log.debug("Virtual threads are not available, using fixed thread pool");
+		}
+		return Executors.newFixedThreadPool(parallelism,
+				new TokenRefreshScheduler.DaemonThreadFactory("sequencing-bulk-fetch-"));
+	}
+
+	/**
+	 * Requests files of a user
+	 */
+	interface Fetch<T>
+	{
+		CompletableFuture<T> fetch(AsyncSequencingFileMetadataApi api);
+	}
+
+	/**
+	 * Outcome of fetching files of a single user
+	 */
+	public static class Result<T>
+	{
+		private final Token token;
+		private final Token currentToken;
+		private final T value;
+		private final Throwable error;
+
+		Result(Token token, Token currentToken, T value, Throwable error) {
+			this.token = token;
+			this.currentToken = currentToken;
+			this.value = value;
+			this.error = error;
+		}
+
+		/**
+		 * Returns token the files have been requested with
+		 */
+		public Token getToken() {
+			return token;
+		}
+
+		/**
+		 * Returns token after the request, which differs from the original one
+		 * if it has been refreshed and is to be stored
+		 */
+		public Token getCurrentToken() {
+			return currentToken;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public Throwable getError() {
+			return error;
+		}
+
+		public boolean isSuccess() {
+			return error == null;
+		}
+	}
+
+	/**
+	 * Results of a batch in order of completion. Iteration blocks until next
+	 * result is available. Closing abandons the rest of the batch, iteration
+	 * ends then. Results not read to the end have to be closed.
+	 */
+	public class Results<T> implements Iterator<Result<T>>, Closeable
+	{
+		private final Iterator<Token> tokens;
+		private final Fetch<T> fetch;
+		private final Semaphore permits = new Semaphore(parallelism);
+		private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(parallelism + 1);
+		private final Object end = new Object();
+		private final Thread producer;
+		private volatile boolean closed;
+		private Object next;
+
+		Results(Iterator<Token> tokens, Fetch<T> fetch)
+		{
+			this.tokens = tokens;
+			this.fetch = fetch;
+			producer = new TokenRefreshScheduler.DaemonThreadFactory("sequencing-bulk-fetch-producer-").newThread(new Producer());
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if (next == null) {
+				try {
+					// Producer may not get to deliver the end once batch is abandoned
+					while (next == null) {
+						next = queue.poll(OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+						if (next == null && (closed || executor.isShutdown()))
+							next = end;
+					}
+					if (next == end)
+						running.remove(this);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for bulk fetch result", e);
+				}
+			}
+			return next != end;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Result<T> next()
+		{
+			if (hasNext() == false)
+				throw new NoSuchElementException();
+
+			Result<T> result = (Result<T>) next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close()
+		{
+			closed = true;
+			running.remove(this);
+			producer.interrupt();
+			queue.clear();
+		}
+
+		/**
+		 * Hands result over to consumer, waiting while consumer is behind.
+		 * Gives up once results have been closed or the fetcher has.
+		 */
+		private void deliver(Object result)
+		{
+			try {
+				while (closed == false && executor.isShutdown() == false) {
+					if (queue.offer(result, OFFER_TIMEOUT, TimeUnit.MILLISECONDS))
+						return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		class Producer implements Runnable
+		{
+			public void run()
+			{
+				try {
+					try {
+						submitAll();
+					} catch (RuntimeException e) {
+						log.debug("Bulk fetch stopped", e);
+					}
+					// All permits are back once every task has delivered its result
+					permits.acquire(parallelism);
+				} catch (InterruptedException e) {
+					log.debug("Bulk fetch interrupted");
+				} finally {
+					deliver(end);
+				}
+			}
+
+			private void submitAll() throws InterruptedException
+			{
+				while (closed == false && tokens.hasNext())
+				{
+					final Token token = tokens.next();
+					permits.acquire();
+					try {
+						executor.execute(new Runnable() {
+							public void run() {
+								try {
+									if (closed == false)
+										deliver(fetchOne(token, fetch));
+								} finally {
+									permits.release();
+								}
+							}
+						});
+					} catch (RejectedExecutionException e) {
+						permits.release();
+						throw e;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.sequencing.oauth.core;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
+import com.sequencing.oauth.exception.NonAuthorizedException;
+
+/**
+ * SequencingFileMetadataApi decorator that keeps own files listing of the
+ * user in shared OwnFilesCache. Sample files are passed through as they
+ * have a process-wide cache of their own.
+ */
+public class CachingSequencingFileMetadataApi implements SequencingFileMetadataApi
+{
+	private final SequencingFileMetadataApi delegate;
+	private final SequencingOAuth2Client client;
+	private final String user;
+	private final OwnFilesCache cache;
+
+	/**
+	 * Caches listing under refresh token of the client, which has to have one
+	 */
+	public CachingSequencingFileMetadataApi(SequencingFileMetadataApi delegate, SequencingOAuth2Client client, OwnFilesCache cache) {
+		this(delegate, client, null, cache);
+	}
+
+	/**
+	 * Caches listing under given user identity. Listing is served only while
+	 * client holds a valid token.
+	 */
+	public CachingSequencingFileMetadataApi(SequencingFileMetadataApi delegate, SequencingOAuth2Client client,
+			String user, OwnFilesCache cache) {
+		this.delegate = delegate;
+		this.client = client;
+		this.user = user;
+		this.cache = cache;
+	}
+
+	@Override
+	public String getSampleFiles() throws NonAuthorizedException {
+		return delegate.getSampleFiles();
+	}
+
+	@Override
+	public List<FileMetadata> getSampleFileMetadata() throws NonAuthorizedException {
+		return delegate.getSampleFileMetadata();
+	}
+
+	@Override
+	public String getOwnFiles() throws NonAuthorizedException
+	{
+		return cache.getText(getUser(), new OwnFilesCache.Loader<String>() {
+			public String load() throws NonAuthorizedException {
+				return delegate.getOwnFiles();
+			}
+		});
+	}
+
+	@Override
+	public List<FileMetadata> getOwnFileMetadata() throws NonAuthorizedException
+	{
+		return cache.getFiles(getUser(), new OwnFilesCache.Loader<List<FileMetadata>>() {
+			public List<FileMetadata> load() throws NonAuthorizedException {
+				List<FileMetadata> files = delegate.getOwnFileMetadata();
+				return files != null ? Collections.unmodifiableList(files) : null;
+			}
+		});
+	}
+
+	/**
+	 * Drops cached listing of the user, e.g. after the user has uploaded a file
+	 */
+	public void invalidate()
+	{
+		if (user != null) {
+			cache.invalidate(user);
+			return;
+		}
+		Token token = client.getToken();
+		if (token != null && token.getRefreshToken() != null)
+			cache.invalidate(token.getRefreshToken());
+	}
+
+	/**
+	 * Returns key of cached listing, making sure client is still authorized
+	 * before anything is served
+	 */
+	private String getUser() throws NonAuthorizedException
+	{
+		Token token;
+		try {
+			token = client.getValidToken();
+		} catch (BasicAuthenticationFailedException e) {
+			throw new NonAuthorizedException(e);
+		}
+
+		if (user != null)
+			return user;
+		if (token.getRefreshToken() == null)
+			throw new NonAuthorizedException("Token has no refresh token to key cached listing by, user identity has to be given");
+		return token.getRefreshToken();
+	}
+}
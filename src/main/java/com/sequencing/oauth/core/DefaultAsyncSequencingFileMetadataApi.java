@@ -0,0 +1,252 @@
+package com.sequencing.oauth.core;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.http.HttpStatus;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
+import com.sequencing.oauth.exception.HttpStatusException;
+import com.sequencing.oauth.exception.NonAuthorizedException;
+import com.sequencing.oauth.helper.AsyncHttpHelper;
+import com.sequencing.oauth.helper.FileMetadataParser;
+import com.sequencing.oauth.helper.RequestCoalescer;
+import com.sequencing.oauth.helper.ResponseParser;
+import com.sequencing.oauth.helper.StringParser;
+
+/**
+ * Default implementation of AsyncSequencingFileMetadataApi interface. Access
+ * token is refreshed on demand when it is about to expire or gets rejected.
+ * Sample files are served from process-wide SampleFilesCache when it is enabled.
+ * Identical requests made concurrently with the same token share a single
+ * exchange and its parsed result.
+ */
+public class DefaultAsyncSequencingFileMetadataApi implements AsyncSequencingFileMetadataApi
+{
+	/**
+	 * Requests in flight shared by all clients
+	 */
+	private static final RequestCoalescer coalescer = new RequestCoalescer(64);
+
+	private SequencingOAuth2Client client;
+	private SampleFilesCache sampleFilesCache;
+
+	public DefaultAsyncSequencingFileMetadataApi(SequencingOAuth2Client client) {
+		this.client = client;
+		AsyncHttpHelper.configure(client.getAuthenticationParameters());
+
+		AuthenticationParameters parameters = client.getAuthenticationParameters();
+		if (parameters.getSampleFilesCacheTtl() > 0 || parameters.getSampleFilesCacheFile() != null) {
+			SampleFilesCache.configure(parameters);
+			sampleFilesCache = SampleFilesCache.getInstance();
+		}
+	}
+
+	@Override
+	public CompletableFuture<String> getSampleFiles()
+	{
+		if (sampleFilesCache == null)
+			return getFilesByType("sample", StringParser.INSTANCE);
+
+		return getCachedSampleFiles().thenApply(new Function<SampleFilesCache.Entry, String>() {
+			public String apply(SampleFilesCache.Entry entry) {
+				return entry.getText();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<String> getOwnFiles()
+	{
+		return getFilesByType("uploaded", StringParser.INSTANCE);
+	}
+
+	@Override
+	public CompletableFuture<List<FileMetadata>> getSampleFileMetadata()
+	{
+		if (sampleFilesCache == null)
+			return getFilesByType("sample", FileMetadataParser.INSTANCE).thenApply(UNMODIFIABLE);
+
+		return getCachedSampleFiles().thenApply(new Function<SampleFilesCache.Entry, List<FileMetadata>>() {
+			public List<FileMetadata> apply(SampleFilesCache.Entry entry) {
+				try {
+					return entry.getFiles();
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<FileMetadata>> getOwnFileMetadata()
+	{
+		return getFilesByType("uploaded", FileMetadataParser.INSTANCE).thenApply(UNMODIFIABLE);
+	}
+
+	/**
+	 * Protects coalesced listing, as the same list may be handed to several callers
+	 */
+	private static final Function<List<FileMetadata>, List<FileMetadata>> UNMODIFIABLE =
+			new Function<List<FileMetadata>, List<FileMetadata>>() {
+				public List<FileMetadata> apply(List<FileMetadata> files) {
+					return Collections.unmodifiableList(files);
+				}
+			};
+
+	/**
+	 * Returns number of requests served by an identical request already in flight
+	 */
+	public static long getCoalescedCount() {
+		return coalescer.getCoalescedCount();
+	}
+
+	/**
+	 * Returns files depending on file type
+	 */
+	private <T> CompletableFuture<T> getFilesByType(String fileType, final ResponseParser<T> parser)
+	{
+		final String uri = getFilesUri(fileType);
+
+		return executeWithToken(new TokenRequest<T>() {
+			public CompletableFuture<T> execute(final Token token) {
+				return coalescer.execute(new RequestKey(uri, token.getAccessToken(), parser), new Supplier<CompletableFuture<T>>() {
+					public CompletableFuture<T> get() {
+						return AsyncHttpHelper.doOauthSecureGet(uri, token, parser);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Returns sample files through process-wide cache
+	 */
+	private CompletableFuture<SampleFilesCache.Entry> getCachedSampleFiles()
+	{
+		final String uri = getFilesUri("sample");
+
+		return executeWithToken(new TokenRequest<SampleFilesCache.Entry>() {
+			public CompletableFuture<SampleFilesCache.Entry> execute(Token token) {
+				return sampleFilesCache.get(uri, token);
+			}
+		});
+	}
+
+	private String getFilesUri(String fileType) {
+		return getFilesUri(client.getAuthenticationParameters(), fileType);
+	}
+
+	static String getFilesUri(AuthenticationParameters parameters, String fileType) {
+		return String.format("%s/DataSourceList?%s=true&shared=true", parameters.getApiUri(), fileType);
+	}
+
+	/**
+	 * Executes request with valid access token, refreshing the token and
+	 * repeating request once if backend rejects it. Token is refreshed
+	 * without blocking, so no thread waits for token endpoint.
+	 */
+	private <T> CompletableFuture<T> executeWithToken(final TokenRequest<T> request)
+	{
+		final Function<Token, CompletableFuture<T>> execute = new Function<Token, CompletableFuture<T>>() {
+			public CompletableFuture<T> apply(Token token) {
+				return request.execute(token);
+			}
+		};
+
+		return client.getValidTokenAsync()
+				.thenCompose(new Function<Token, CompletableFuture<T>>() {
+					public CompletableFuture<T> apply(final Token token) {
+						return request.execute(token)
+								.handle(new BiFunction<T, Throwable, CompletableFuture<T>>() {
+									public CompletableFuture<T> apply(T result, Throwable e) {
+										if (e == null)
+											return CompletableFuture.completedFuture(result);
+
+										Throwable cause = unwrap(e);
+										if (isUnauthorized(cause) == false)
+											return DefaultAsyncSequencingFileMetadataApi.<T>failed(cause);
+
+										return client.getValidTokenAsync(token).thenCompose(execute);
+									}
+								})
+								.thenCompose(Function.<CompletableFuture<T>>identity());
+					}
+				})
+				.handle(new BiFunction<T, Throwable, CompletableFuture<T>>() {
+					public CompletableFuture<T> apply(T result, Throwable e) {
+						if (e == null)
+							return CompletableFuture.completedFuture(result);
+
+						Throwable cause = unwrap(e);
+						if (cause instanceof BasicAuthenticationFailedException)
+							cause = new NonAuthorizedException(cause.getMessage(), cause);
+						return DefaultAsyncSequencingFileMetadataApi.<T>failed(cause);
+					}
+				})
+				.thenCompose(Function.<CompletableFuture<T>>identity());
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
+	private static boolean isUnauthorized(Throwable e) {
+		return e instanceof HttpStatusException
+				&& ((HttpStatusException) e).getStatusCode() == HttpStatus.SC_UNAUTHORIZED;
+	}
+
+	private static <T> CompletableFuture<T> failed(Throwable e) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		result.completeExceptionally(e);
+		return result;
+	}
+
+	/**
+	 * Identity of a request for coalescing purposes
+	 */
+	static class RequestKey
+	{
+		private final String uri;
+		private final String accessToken;
+		private final ResponseParser<?> parser;
+
+		RequestKey(String uri, String accessToken, ResponseParser<?> parser) {
+			this.uri = uri;
+			this.accessToken = accessToken;
+			this.parser = parser;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o)
+				return true;
+			if (o instanceof RequestKey == false)
+				return false;
+
+			RequestKey other = (RequestKey) o;
+			return uri.equals(other.uri) && accessToken.equals(other.accessToken) && parser == other.parser;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * uri.hashCode() + accessToken.hashCode()) + System.identityHashCode(parser);
+		}
+	}
+
+	/**
+	 * Request to backend made on behalf of user
+	 */
+	interface TokenRequest<T>
+	{
+		CompletableFuture<T> execute(Token token);
+	}
+}
@@ -1,43 +1,82 @@
 package com.sequencing.oauth.core;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.sequencing.oauth.exception.NonAuthorizedException;
-import com.sequencing.oauth.helper.HttpHelper;
 
 /**
- * Default implementation of SequencingFileMetadataApi interface
+ * Default implementation of SequencingFileMetadataApi interface. Blocks
+ * on top of AsyncSequencingFileMetadataApi.
  */
 public class DefaultSequencingFileMetadataApi implements SequencingFileMetadataApi
 {
-	private SequencingOAuth2Client client;
+	private static final Logger log = LoggerFactory.getLogger(DefaultSequencingFileMetadataApi.class);
+
+	private AsyncSequencingFileMetadataApi asyncApi;
 
 	public DefaultSequencingFileMetadataApi(SequencingOAuth2Client client) {
-		this.client = client;
+		this(new DefaultAsyncSequencingFileMetadataApi(client));
+	}
+
+	public DefaultSequencingFileMetadataApi(AsyncSequencingFileMetadataApi asyncApi) {
+		this.asyncApi = asyncApi;
 	}
-	
+
 	@Override
 	public String getSampleFiles() throws NonAuthorizedException
 	{
-        return getFilesByType("sample");
+        return await(asyncApi.getSampleFiles());
     }
-	
+
 	@Override
 	public String getOwnFiles() throws NonAuthorizedException
 	{
-        return getFilesByType("uploaded");
+        return await(asyncApi.getOwnFiles());
     }
-	
+
+	@Override
+	public List<FileMetadata> getSampleFileMetadata() throws NonAuthorizedException
+	{
+		return await(asyncApi.getSampleFileMetadata());
+	}
+
+	@Override
+	public List<FileMetadata> getOwnFileMetadata() throws NonAuthorizedException
+	{
+		return await(asyncApi.getOwnFileMetadata());
+	}
+
 	/**
-	 * Returns files depending on file type
+	 * Waits for asynchronous reply. I/O failures result in null,
+	 * same as synchronous HttpHelper calls do.
 	 */
-	private String getFilesByType(String fileType) throws NonAuthorizedException
+	private static <T> T await(Future<T> future) throws NonAuthorizedException
 	{
-		if (client.isAuthorized() == false) {
-            throw new NonAuthorizedException();
-        }
-		
-        String uri = String.format("%s/DataSourceList?%s=true&shared=true", 
-        		client.getAuthenticationParameters().getApiUri(), fileType);
-        
-        return HttpHelper.doOauthSecureGet(uri, client.getToken());
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for sequencing.com reply", e);
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NonAuthorizedException)
+				throw (NonAuthorizedException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof IOException) {
+				log.debug("Error executing HTTP request", cause);
+				return null;
+			}
+			throw new RuntimeException(cause);
+		}
 	}
 }
@@ -1,29 +1,52 @@
 package com.sequencing.oauth.core;
 
-import java.io.Serializable;
-import java.util.ArrayList;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.JsonParseException;
 import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.config.ConfigurationRegistry;
 import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
+import com.sequencing.oauth.helper.AsyncHttpHelper;
 import com.sequencing.oauth.helper.HttpHelper;
-import com.sequencing.oauth.helper.JsonHelper;
+import com.sequencing.oauth.helper.TokenResponseParser;
+import com.sequencing.oauth.metrics.Metrics;
+import com.sequencing.oauth.metrics.TokenRefreshTrace;
+import com.sequencing.oauth.metrics.Tracing;
+import com.sequencing.oauth.store.TokenStore;
 
 /**
- * Default implementation of SequencingOAuth2Client interface
+ * Default implementation of SequencingOAuth2Client interface. Serialized form
+ * holds token state and client id only, configuration and token store are
+ * looked up in ConfigurationRegistry and scheduled refresh is re-armed when
+ * client is read. Only one copy of a client has its refresh armed at a time,
+ * arming it stops refresh of the copy that has armed it before.
  */
-public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Serializable
+public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Externalizable
 {
-	private static final long serialVersionUID = 367801346184616920L;
+	/**
+	 * Changed along with switch to Externalizable, clients serialized by
+	 * earlier versions cannot be read
+	 */
+	private static final long serialVersionUID = 2L;
 	private AuthenticationParameters parameters;
 	private volatile Token token;
 	
@@ -68,55 +91,145 @@ public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Se
 	private static final String ATTR_REFRESH_TOKEN = "refresh_token";
 	
 	/**
-	 * Attribute for access token
+	 * Attribute for value grant type
 	 */
-	private static final String ATTR_ACCESS_TOKEN = "access_token";
+	private static final String ATTR_GRANT_TYPE = "grant_type";
 	
 	/**
-	 * Attribute for value grant type
+	 * Version of serialized form
 	 */
-	private static final String ATTR_GRANT_TYPE = "grant_type";
+	private static final int EXTERNAL_VERSION = 1;
 	
 	/**
-	 * Attribute for value expires in
+	 * Delay before another attempt when token refresh fails, in seconds
 	 */
-	private static final String ATTR_EXPRIES_IN = "expires_in";
+	private static final long REFRESH_RETRY_DELAY = 60;
 	
 	/**
-	 * Executor that handles token refresh
+	 * How long before expiry, in milliseconds, token is refreshed on demand
 	 */
-	private ScheduledExecutorService tokenUpdateExecutor = Executors.newSingleThreadScheduledExecutor();
+	private static final long REFRESH_AHEAD = 30000;
+	
+	/**
+	 * Clients with armed refresh by user, or by refresh token for clients
+	 * without token store
+	 */
+	private static final ConcurrentMap<String, DefaultSequencingOAuth2Client> armedRefreshes =
+			new ConcurrentHashMap<String, DefaultSequencingOAuth2Client>();
+	
+	/**
+	 * Refresh being carried out at the moment, shared by concurrent callers
+	 */
+	private transient CompletableFuture<Token> refreshInFlight;
+	
+	/**
+	 * Login redirect URL without state value, built on first use
+	 */
+	private transient String redirectUrlPrefix;
+	
+	/**
+	 * Handle of the next token refresh registered with shared scheduler
+	 */
+	private transient volatile TokenRefreshScheduler.Timeout refreshTimeout;
+	
+	/**
+	 * Key this client is registered under in armedRefreshes
+	 */
+	private transient volatile String refreshKey;
+	
+	/**
+	 * Permanent storage of token, if any
+	 */
+	private transient TokenStore tokenStore;
+	
+	/**
+	 * Whether token is only refreshed when it is asked for, never on schedule
+	 */
+	private transient boolean refreshOnDemand;
+	
+	/**
+	 * Identity token is kept under in token store
+	 */
+	private String user;
+	
+	/**
+	 * For deserialization only, client is not usable until readExternal has
+	 * restored it
+	 */
+	public DefaultSequencingOAuth2Client() {
+	}
 	
 	public DefaultSequencingOAuth2Client(AuthenticationParameters parameters){
+		init(parameters);
+		ConfigurationRegistry.registerIfAbsent(parameters);
+	}
+	
+	private void init(AuthenticationParameters parameters)
+	{
 		this.parameters = parameters;
+		HttpHelper.configure(parameters);
+		TokenRefreshScheduler.configure(parameters);
+		LoginStateRegistry.configure(parameters);
+	}
+	
+	/**
+	 * Creates client authorized with previously obtained token. Refresh is not
+	 * scheduled, token is refreshed on demand when it is about to expire.
+	 */
+	public DefaultSequencingOAuth2Client(AuthenticationParameters parameters, Token token)
+	{
+		this(parameters);
+		this.token = token;
+		this.refreshOnDemand = true;
+	}
+	
+	/**
+	 * Creates client that keeps token of given user in token store. Token
+	 * saved previously is restored, so user does not need to authorize again.
+	 */
+	public DefaultSequencingOAuth2Client(AuthenticationParameters parameters, TokenStore tokenStore, String user)
+	{
+		this(parameters);
+		this.tokenStore = tokenStore;
+		this.user = user;
+		ConfigurationRegistry.registerTokenStore(parameters.getClientId(), tokenStore);
+		
+		try {
+			token = tokenStore.load(user);
+		} catch (IOException e) {
+			log.warn("Error loading token of " + user, e);
+		}
+		
+		if (token != null)
+			scheduleTokenRefresh(getRefreshDelay(token));
 	}
 	
 	@Override
 	public Map<String, String> getHttpParametersForRedirect() {
-		Map<String, String> attribures = new HashMap<String, String>(5);
-		attribures.put(ATTR_REDIRECT_URL, parameters.getRedirectUri());
-		attribures.put(ATTR_RESPONSE_TYPE, parameters.getResponseType());
-		attribures.put(ATTR_STATE, parameters.getState());
-		attribures.put(ATTR_CLIENT_ID, parameters.getClientId());
-		attribures.put(ATTR_SCOPE, parameters.getScope());
+		Map<String, String> attribures = getStaticParametersForRedirect();
+		attribures.put(ATTR_STATE, LoginStateRegistry.getInstance().issue());
 		return attribures;
 	}
 	
 	@Override
 	public String getLoginRedirectUrl() {
-		return String.format("%s?%s", parameters.getOAuthAuthorizationUri(), getAttributesForRedirectAsString());
+		return getRedirectUrlPrefix() + LoginStateRegistry.getInstance().issue();
 	}
 
 	@Override
 	public Token authorize(String responseCode, String responseState) throws IllegalStateException, BasicAuthenticationFailedException
 	{
-		if (responseState.equals(parameters.getState()) == false)
+		if (responseState == null)
+			throw new IllegalStateException("Missing state parameter");
+		if (LoginStateRegistry.getInstance().consume(responseState) == false
+				&& (parameters.isAcceptStaticState() == false || responseState.equals(parameters.getState()) == false))
 			throw new IllegalStateException("Invalid state parameter");
 			
-		// You are to save these 2 tokens somewhere in a permanent storage, such as
-        // database. When access token expires, you will be able to use refresh
-        // token to fetch a new access token without need of re-authorization by
-        // user.
+		// Tokens are saved in token store when client has been given one. 
+		// Otherwise you are to save these 2 tokens somewhere in a permanent 
+		// storage, such as database. When access token expires, you will be 
+		// able to use refresh token to fetch a new access token without need 
+		// of re-authorization by user.
 			
 		Map<String, String> params = new HashMap<String, String>();
 		params.put(ATTR_GRANT_TYPE,   parameters.getGrantType());
@@ -124,19 +237,16 @@ public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Se
 		params.put(ATTR_REDIRECT_URL, parameters.getRedirectUri());
 
 		String uri = parameters.getOAuthTokenUri();
-		String result = HttpHelper.doBasicSecurePost(uri, parameters, params);
+		Token result = requestToken(uri, params);
 
 		if (result == null) {
 			throw new BasicAuthenticationFailedException("Failure authentication");
 		}
 			
-		String accessToken = JsonHelper.getField(result, ATTR_ACCESS_TOKEN);
-		String refreshToken = JsonHelper.getField(result, ATTR_REFRESH_TOKEN);
-		long timelife = Long.parseLong(JsonHelper.getField(result, ATTR_EXPRIES_IN));
-			
-		token = new Token(accessToken, refreshToken, timelife);
+		token = result;
+		saveToken();
 		
-		runRefreshTokenExecutor();
+		scheduleTokenRefresh(getRefreshDelay(token));
 		
 		return token;
 	}
@@ -144,7 +254,8 @@ public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Se
 	@Override
 	public boolean isAuthorized()
 	{
-		return token != null && token.getLifeTime() != 0;
+		Token current = token;
+		return current != null && current.isExpired() == false;
 	}
 	
 	@Override
@@ -156,6 +267,190 @@ public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Se
 	public Token getToken() {
 		return token;
 	}
+	
+	@Override
+	public Token getValidToken() throws BasicAuthenticationFailedException
+	{
+		Token current = token;
+		if (current == null)
+			throw new BasicAuthenticationFailedException("Client has not been authorized");
+		
+		if (current.getTimeToExpiry() > REFRESH_AHEAD)
+			return current;
+		
+		return refreshSingleFlight(current, 0);
+	}
+	
+	@Override
+	public Token getValidToken(Token rejected) throws BasicAuthenticationFailedException
+	{
+		Token current = token;
+		if (current == null)
+			throw new BasicAuthenticationFailedException("Client has not been authorized");
+		
+		if (current != rejected)
+			return current;
+		
+		return refreshSingleFlight(current, 0);
+	}
+	
+	@Override
+	public CompletableFuture<Token> getValidTokenAsync()
+	{
+		Token current = token;
+		if (current == null)
+			return failed(new BasicAuthenticationFailedException("Client has not been authorized"));
+		
+		if (current.getTimeToExpiry() > REFRESH_AHEAD)
+			return CompletableFuture.completedFuture(current);
+		
+		return refreshSingleFlightAsync(current);
+	}
+	
+	@Override
+	public CompletableFuture<Token> getValidTokenAsync(Token rejected)
+	{
+		Token current = token;
+		if (current == null)
+			return failed(new BasicAuthenticationFailedException("Client has not been authorized"));
+		
+		if (current != rejected)
+			return CompletableFuture.completedFuture(current);
+		
+		return refreshSingleFlightAsync(current);
+	}
+	
+	/**
+	 * Same as {@link #refreshSingleFlight}, with the request sent through
+	 * AsyncHttpHelper instead of blocking the caller
+	 */
+	private CompletableFuture<Token> refreshSingleFlightAsync(final Token stale)
+	{
+		final CompletableFuture<Token> flight;
+		synchronized (this) {
+			if (token != stale)
+				return CompletableFuture.completedFuture(token);
+			
+			if (refreshInFlight != null)
+				return refreshInFlight.thenApply(Function.<Token>identity());
+			flight = refreshInFlight = new CompletableFuture<Token>();
+		}
+		
+		log.debug("Going to refresh OAuth token");
+		final TokenRefreshTrace trace = Tracing.getHook().beginTokenRefresh();
+		
+		Map<String, String> params = new HashMap<String, String>(2);
+		params.put(ATTR_GRANT_TYPE, parameters.getGrantTypeRefreshToken());
+		params.put(ATTR_REFRESH_TOKEN, stale.getRefreshToken());
+		
+		AsyncHttpHelper.doBasicSecurePost(parameters.getOAuthTokenUri(), parameters, params, TokenResponseParser.INSTANCE)
+				.whenComplete(new BiConsumer<Token, Throwable>() {
+					public void accept(Token result, Throwable e) {
+						Throwable failure = e;
+						try {
+							if (failure == null) {
+								token = new Token(result.getAccessToken(), stale.getRefreshToken(), result.getLifeTime(),
+										result.getExpirationTime());
+								saveToken();
+								scheduleTokenRefresh(getRefreshDelay(token));
+							}
+							
+							Metrics.getListener().onTokenRefresh(failure == null, 0, stale.getTimeToExpiry());
+							if (trace != null)
+								trace.end(parameters.getClientId(), failure == null, 0, stale.getTimeToExpiry());
+						} catch (Throwable t) {
+							log.warn("Error completing token refresh", t);
+							if (failure == null)
+								failure = t;
+						} finally {
+							// Waiters are released whatever happens, or they would wait forever
+							synchronized (DefaultSequencingOAuth2Client.this) {
+								refreshInFlight = null;
+							}
+							
+							if (failure == null) {
+								flight.complete(token);
+							} else {
+								Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+										? failure.getCause() : failure;
+								if (cause instanceof JsonParseException)
+									flight.completeExceptionally(new BasicAuthenticationFailedException("Unexpected token endpoint reply", cause));
+								else
+									flight.completeExceptionally(new BasicAuthenticationFailedException("Token refresh failed", cause));
+							}
+						}
+					}
+				});
+		
+		return flight.thenApply(Function.<Token>identity());
+	}
+	
+	private static <T> CompletableFuture<T> failed(Throwable e) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		result.completeExceptionally(e);
+		return result;
+	}
+	
+	/**
+	 * Refreshes stale token unless it has been replaced already. Only the first
+	 * caller talks to token endpoint, the rest wait for its result.
+	 */
+	private Token refreshSingleFlight(Token stale, long lagMillis) throws BasicAuthenticationFailedException
+	{
+		CompletableFuture<Token> flight;
+		boolean owner = false;
+		
+		synchronized (this) {
+			if (token != stale)
+				return token;
+			
+			flight = refreshInFlight;
+			if (flight == null) {
+				flight = refreshInFlight = new CompletableFuture<Token>();
+				owner = true;
+			}
+		}
+		
+		if (owner) {
+			TokenRefreshTrace trace = Tracing.getHook().beginTokenRefresh();
+			boolean success = false;
+			try {
+				refreshToken();
+				success = true;
+				saveToken();
+				scheduleTokenRefresh(getRefreshDelay(token));
+				flight.complete(token);
+				return token;
+			} catch (BasicAuthenticationFailedException e) {
+				flight.completeExceptionally(e);
+				throw e;
+			} catch (RuntimeException e) {
+				flight.completeExceptionally(e);
+				throw e;
+			} finally {
+				Metrics.getListener().onTokenRefresh(success, lagMillis, stale.getTimeToExpiry());
+				if (trace != null)
+					trace.end(parameters.getClientId(), success, lagMillis, stale.getTimeToExpiry());
+				synchronized (this) {
+					refreshInFlight = null;
+				}
+				// Errors are not caught above, waiters are released anyway
+				if (flight.isDone() == false)
+					flight.completeExceptionally(new BasicAuthenticationFailedException("Token refresh failed"));
+			}
+		}
+		
+		try {
+			return flight.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BasicAuthenticationFailedException("Interrupted while waiting for token refresh", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof BasicAuthenticationFailedException)
+				throw (BasicAuthenticationFailedException) e.getCause();
+			throw new BasicAuthenticationFailedException("Token refresh failed", e.getCause());
+		}
+	}
 
 	protected void refreshToken() throws BasicAuthenticationFailedException
 	{
@@ -166,56 +461,254 @@ public class DefaultSequencingOAuth2Client implements SequencingOAuth2Client, Se
 		params.put(ATTR_REFRESH_TOKEN, token.getRefreshToken());
 
 		String uri = parameters.getOAuthTokenUri();
-		String result = HttpHelper.doBasicSecurePost(uri, parameters, params);
+		Token result = requestToken(uri, params);
 
 		if (result == null) {
 			throw new BasicAuthenticationFailedException("Authentication against backend failed. "
 					+ "Server replied with: " + result);
 		}
 		
-		String accessToken = JsonHelper.getField(result, ATTR_ACCESS_TOKEN);
-		long timelife = Long.parseLong(JsonHelper.getField(result, ATTR_EXPRIES_IN));
-		
-		token = new Token(accessToken, token.getRefreshToken(), timelife);
+		token = new Token(result.getAccessToken(), token.getRefreshToken(), result.getLifeTime(),
+				result.getExpirationTime());
 		log.debug("Token has been refreshed. New token value " + token.getAccessToken());
 	}
 	
 	/**
-	 * Runs executor for refreshing token 
+	 * Posts token request, reply is decoded in a single pass
+	 * @return token received or null if there has been no reply
+	 */
+	private Token requestToken(String uri, Map<String, String> params) throws BasicAuthenticationFailedException
+	{
+		try {
+			return HttpHelper.doBasicSecurePost(uri, parameters, params, TokenResponseParser.INSTANCE);
+		} catch (JsonParseException e) {
+			throw new BasicAuthenticationFailedException("Unexpected token endpoint reply", e);
+		}
+	}
+	
+	/**
+	 * Hands current token over to token store, if there is one
+	 */
+	private void saveToken()
+	{
+		if (tokenStore == null)
+			return;
+		
+		try {
+			tokenStore.save(user, token);
+		} catch (IOException e) {
+			log.warn("Error saving token of " + user, e);
+		}
+	}
+	
+	/**
+	 * Cancels scheduled token refresh, e.g. when user logs out
+	 */
+	public void stopTokenRefresh()
+	{
+		TokenRefreshScheduler.Timeout timeout = refreshTimeout;
+		refreshTimeout = null;
+		if (timeout != null)
+			timeout.cancel();
+		
+		String key = refreshKey;
+		refreshKey = null;
+		if (key != null)
+			armedRefreshes.remove(key, this);
+	}
+	
+	/**
+	 * Registers next token refresh with shared scheduler, stopping refresh
+	 * armed by another copy of this client. Client refreshing its token on
+	 * demand is never registered.
+	 */
+	private void scheduleTokenRefresh(long delay) {
+		if (refreshOnDemand)
+			return;
+		
+		stopTokenRefresh();
+		String key = getRefreshKey();
+		if (key != null) {
+			DefaultSequencingOAuth2Client previous = armedRefreshes.put(key, this);
+			if (previous != null && previous != this)
+				previous.stopTokenRefresh();
+			refreshKey = key;
+		}
+		
+		TokenRefreshTask task = new TokenRefreshTask(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(delay));
+		Token current = token;
+		long expirationTime = current != null ? current.getExpirationTime() : task.dueTime;
+		refreshTimeout = TokenRefreshScheduler.getInstance().schedule(task, delay, TimeUnit.SECONDS, expirationTime);
+	}
+	
+	/**
+	 * Returns key copies of this client share in armedRefreshes, null if
+	 * there is nothing to tell them by
+	 */
+	private String getRefreshKey()
+	{
+		if (user != null)
+			return parameters.getClientId() + ":user:" + user;
+		
+		Token current = token;
+		if (current != null && current.getRefreshToken() != null)
+			return parameters.getClientId() + ":token:" + current.getRefreshToken();
+		return null;
+	}
+	
+	/**
+	 * Returns delay in seconds after which given token is to be refreshed. Refresh
+	 * time is picked at random within refreshAheadWindow before the last minute
+	 * of token lifetime, so that tokens issued together are not refreshed together.
 	 */
-	private void runRefreshTokenExecutor() {
-		tokenUpdateExecutor.scheduleWithFixedDelay(new TokenRefreshTask(), 0, token.getLifeTime() - 60, TimeUnit.SECONDS);
+	private long getRefreshDelay(Token token)
+	{
+		long lifetime = token.getTimeToExpiry() / 1000;
+		if (lifetime <= 120)
+			return Math.max(lifetime / 2, 1);
+		
+		long window = Math.min(parameters.getRefreshAheadWindow(), lifetime / 2 - 60);
+		long ahead = 60 + (window > 0 ? ThreadLocalRandom.current().nextLong(window + 1) : 0);
+		return lifetime - ahead;
 	}
 	
 	class TokenRefreshTask implements Runnable
 	{
+		/**
+		 * Moment refresh is due at, in milliseconds since epoch
+		 */
+		private final long dueTime;
+		
+		TokenRefreshTask(long dueTime) {
+			this.dueTime = dueTime;
+		}
+		
 		public void run() {
+			// Refresh has been stopped, e.g. armed by another copy of the client
+			if (refreshTimeout == null)
+				return;
+			
 			try {
-				refreshToken();
+				refreshSingleFlight(token, Math.max(System.currentTimeMillis() - dueTime, 0));
 			} catch (BasicAuthenticationFailedException e) {
-				log.debug("Error occured during refresh token", e.getMessage());
+				log.debug("Error occured during refresh token", e);
+				retry();
+			} catch (RuntimeException e) {
+				log.debug("Error occured during refresh token", e);
+				retry();
 			}
 		}
+		
+		private void retry()
+		{
+			if (refreshTimeout != null)
+				scheduleTokenRefresh(REFRESH_RETRY_DELAY);
+		}
 	}
 	
-	private List<String> getAttributesForRedirectAsList() {
-		Map<String, String> attributes = getHttpParametersForRedirect();
-		List<String> result = new ArrayList<String>(attributes.size());
+	/**
+	 * Writes token state along with client id configuration is registered under
+	 */
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException
+	{
+		Token current = token;
+		out.writeByte(EXTERNAL_VERSION);
+		writeNullableString(out, parameters.getClientId());
+		writeNullableString(out, user);
+		out.writeBoolean(refreshTimeout != null);
+		out.writeBoolean(current != null);
+		if (current != null) {
+			writeNullableString(out, current.getAccessToken());
+			writeNullableString(out, current.getRefreshToken());
+			out.writeLong(current.getLifeTime());
+			out.writeLong(current.getExpirationTime());
+		}
+	}
+	
+	/**
+	 * Restores client with registered configuration and token store of its
+	 * client id and schedules token refresh if it has been scheduled on the
+	 * writing side. Token saved in the store is taken if it is newer.
+	 */
+	@Override
+	public void readExternal(ObjectInput in) throws IOException
+	{
+		int version = in.readByte();
+		if (version != EXTERNAL_VERSION)
+			throw new InvalidObjectException("Unsupported serialized form version " + version);
 		
-		for (Entry<String, String> e : attributes.entrySet())
-			result.add(String.format("%s=%s", e.getKey(), e.getValue()));
+		String clientId = readNullableString(in);
+		AuthenticationParameters registered = ConfigurationRegistry.get(clientId);
+		if (registered == null)
+			throw new InvalidObjectException("No configuration registered for client id " + clientId);
 		
-		return result;
+		init(registered);
+		user = readNullableString(in);
+		boolean refreshScheduled = in.readBoolean();
+		if (in.readBoolean())
+			token = new Token(readNullableString(in), readNullableString(in), in.readLong(), in.readLong());
+		
+		if (user != null) {
+			tokenStore = ConfigurationRegistry.getTokenStore(clientId);
+			if (tokenStore != null)
+				restoreStoredToken();
+		}
+		
+		if (refreshScheduled && token != null)
+			scheduleTokenRefresh(getRefreshDelay(token));
 	}
 	
-	private String getAttributesForRedirectAsString(){
-		List<String> listOfAttributes = getAttributesForRedirectAsList();
-		StringBuilder builder = new StringBuilder(listOfAttributes.get(0));
-		for(int i = 1; i < listOfAttributes.size(); i++)
-		{
-			builder.append("&");
-			builder.append(listOfAttributes.get(i));
+	/**
+	 * Takes token saved in token store if it is newer than the current one
+	 */
+	private void restoreStoredToken()
+	{
+		try {
+			Token stored = tokenStore.load(user);
+			if (stored != null && (token == null || stored.getExpirationTime() > token.getExpirationTime()))
+				token = stored;
+		} catch (IOException e) {
+			log.warn("Error loading token of " + user, e);
+		}
+	}
+	
+	private static void writeNullableString(ObjectOutput out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+	
+	private static String readNullableString(ObjectInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	
+	/**
+	 * Returns redirect parameters that are the same for every login
+	 */
+	private Map<String, String> getStaticParametersForRedirect() {
+		Map<String, String> attribures = new HashMap<String, String>(5);
+		attribures.put(ATTR_REDIRECT_URL, parameters.getRedirectUri());
+		attribures.put(ATTR_RESPONSE_TYPE, parameters.getResponseType());
+		attribures.put(ATTR_CLIENT_ID, parameters.getClientId());
+		attribures.put(ATTR_SCOPE, parameters.getScope());
+		return attribures;
+	}
+	
+	/**
+	 * Returns login redirect URL up to the value of state parameter, 
+	 * which is the only part that differs between logins
+	 */
+	private String getRedirectUrlPrefix() {
+		String prefix = redirectUrlPrefix;
+		if (prefix == null) {
+			StringBuilder builder = new StringBuilder(parameters.getOAuthAuthorizationUri()).append('?');
+			for (Entry<String, String> e : getStaticParametersForRedirect().entrySet())
+				builder.append(e.getKey()).append('=').append(e.getValue()).append('&');
+			builder.append(ATTR_STATE).append('=');
+			redirectUrlPrefix = prefix = builder.toString();
 		}
-		return builder.toString();
+		return prefix;
 	}
 }
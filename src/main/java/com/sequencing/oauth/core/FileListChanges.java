@@ -0,0 +1,68 @@
+package com.sequencing.oauth.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Difference between file listing of a user and the one seen by previous
+ * sync. Lists are in order of file id.
+ */
+public class FileListChanges
+{
+	private final List<FileMetadata> added;
+	private final List<FileMetadata> modified;
+	private final List<String> removed;
+	private final int fileCount;
+
+	FileListChanges(List<FileMetadata> added, List<FileMetadata> modified, List<String> removed, int fileCount)
+	{
+		this.added = Collections.unmodifiableList(added);
+		this.modified = Collections.unmodifiableList(modified);
+		this.removed = Collections.unmodifiableList(removed);
+		this.fileCount = fileCount;
+	}
+
+	/**
+	 * Returns changes of listing that has not changed at all
+	 */
+	static FileListChanges none(int fileCount)
+	{
+		return new FileListChanges(Collections.<FileMetadata>emptyList(), Collections.<FileMetadata>emptyList(),
+				Collections.<String>emptyList(), fileCount);
+	}
+
+	/**
+	 * Returns files that have not been there before, all of them on first sync
+	 */
+	public List<FileMetadata> getAdded() {
+		return added;
+	}
+
+	/**
+	 * Returns files that have been there before with other attributes
+	 */
+	public List<FileMetadata> getModified() {
+		return modified;
+	}
+
+	/**
+	 * Returns ids of files that are not there anymore
+	 */
+	public List<String> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Returns whether nothing has changed
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+	}
+
+	/**
+	 * Returns number of files in the listing
+	 */
+	public int getFileCount() {
+		return fileCount;
+	}
+}
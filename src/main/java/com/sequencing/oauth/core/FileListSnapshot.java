@@ -0,0 +1,149 @@
+package com.sequencing.oauth.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * What {@link FileListSync} remembers of a file listing: hash of the reply as
+ * a whole and, for every file, its id and hash of its attributes. Entries are
+ * kept sorted by id in plain arrays, some 16 bytes per file besides the ids.
+ * Snapshots are immutable and serializable, so they can be persisted between
+ * application restarts.
+ */
+public class FileListSnapshot implements Serializable
+{
+	private static final long serialVersionUID = 2318064271975536127L;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long contentHash;
+	private final String[] ids;
+	private final long[] hashes;
+
+	private FileListSnapshot(long contentHash, String[] ids, long[] hashes) {
+		this.contentHash = contentHash;
+		this.ids = ids;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Makes snapshot of given files
+	 * @param contentHash hash of the reply they have been read from
+	 * @param files files sorted by id
+	 */
+	static FileListSnapshot of(long contentHash, List<FileMetadata> files)
+	{
+		String[] ids = new String[files.size()];
+		long[] hashes = new long[files.size()];
+		for (int i = 0; i < ids.length; i++) {
+			FileMetadata file = files.get(i);
+			ids[i] = file.getId();
+			hashes[i] = hash(file);
+		}
+		return new FileListSnapshot(contentHash, ids, hashes);
+	}
+
+	/**
+	 * Returns hash of the reply snapshot has been made of
+	 */
+	public long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * Returns number of files
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns whether there is a file with given id
+	 */
+	public boolean contains(String id) {
+		return Arrays.binarySearch(ids, id, ID_ORDER) >= 0;
+	}
+
+	String getId(int index) {
+		return ids[index];
+	}
+
+	long getHash(int index) {
+		return hashes[index];
+	}
+
+	/**
+	 * Orders files by id, files without one go first
+	 */
+	static final Comparator<String> ID_ORDER = new Comparator<String>() {
+		public int compare(String a, String b) {
+			if (a == null)
+				return b == null ? 0 : -1;
+			return b == null ? 1 : a.compareTo(b);
+		}
+	};
+
+	/**
+	 * Returns 64-bit FNV-1a hash of all file attributes
+	 */
+	static long hash(FileMetadata file)
+	{
+		long hash = FNV_OFFSET_BASIS;
+		hash = hash(hash, file.getId());
+		hash = hash(hash, file.getName());
+		hash = hash(hash, file.getExt());
+		hash = hash(hash, file.getFileCategory());
+		hash = hash(hash, file.getFileSubType());
+		hash = hash(hash, file.getFileType());
+		hash = hash(hash, file.getFriendlyDesc1());
+		hash = hash(hash, file.getFriendlyDesc2());
+		hash = hash(hash, file.getPopulation());
+		hash = hash(hash, file.getRefVersion());
+		hash = hash(hash, file.getSex());
+		return hash;
+	}
+
+	/**
+	 * Adds given bytes to 64-bit FNV-1a hash
+	 */
+	static long hash(long hash, byte[] bytes, int offset, int length)
+	{
+		for (int i = offset; i < offset + length; i++) {
+			hash ^= bytes[i] & 0xFF;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Starting value of 64-bit FNV-1a hash
+	 */
+	static long hashStart() {
+		return FNV_OFFSET_BASIS;
+	}
+
+	/**
+	 * Adds value to 64-bit FNV-1a hash, nulls and empty values are told apart
+	 */
+	private static long hash(long hash, String value)
+	{
+		if (value == null) {
+			hash ^= 0xFF;
+			return hash * FNV_PRIME;
+		}
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash ^= c & 0xFF;
+			hash *= FNV_PRIME;
+			hash ^= c >>> 8;
+			hash *= FNV_PRIME;
+		}
+		// Separator keeps "ab" + "c" apart from "a" + "bc"
+		hash ^= 0xFE;
+		return hash * FNV_PRIME;
+	}
+}
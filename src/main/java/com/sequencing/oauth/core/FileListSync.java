@@ -0,0 +1,199 @@
+package com.sequencing.oauth.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.HttpStatus;
+
+import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
+import com.sequencing.oauth.exception.HttpStatusException;
+import com.sequencing.oauth.exception.NonAuthorizedException;
+import com.sequencing.oauth.helper.FileMetadataParser;
+import com.sequencing.oauth.helper.HttpHelper;
+import com.sequencing.oauth.helper.ResponseParser;
+
+/**
+ * Mirrors own files of many users, telling every time only what has changed
+ * since previous sync of the same user. Last listing of every user is kept as
+ * a compact {@link FileListSnapshot}. Reply identical to the previous one is
+ * recognized by its hash and is not parsed at all, so that work done for a
+ * user depends on how much has changed rather than on how many files there are.
+ *
+ * <pre>
+ * FileListChanges changes = sync.syncOwnFiles(userId, client);
+ * if (changes != null &amp;&amp; changes.isEmpty() == false)
+ *     mirror(changes.getAdded(), changes.getModified(), changes.getRemoved());
+ * </pre>
+ *
+ * Syncs of the same user are not to run concurrently.
+ */
+public class FileListSync
+{
+	private final ConcurrentMap<String, FileListSnapshot> snapshots = new ConcurrentHashMap<String, FileListSnapshot>();
+
+	/**
+	 * Lists own files of given user and compares them to the previous listing.
+	 * All files are reported as added on first sync of the user.
+	 * @param user key snapshot of the user is kept under
+	 * @param client client authorized by the user
+	 * @return changes since previous sync, null if reply could not be received
+	 */
+	public FileListChanges syncOwnFiles(String user, SequencingOAuth2Client client) throws NonAuthorizedException
+	{
+		HttpHelper.configure(client.getAuthenticationParameters());
+		String uri = DefaultAsyncSequencingFileMetadataApi.getFilesUri(client.getAuthenticationParameters(), "uploaded");
+
+		FileListSnapshot previous = snapshots.get(user);
+		Listing listing = fetch(uri, client, new ListingParser(previous));
+		if (listing == null)
+			return null;
+		if (listing.files == null)
+			return FileListChanges.none(previous.size());
+
+		Collections.sort(listing.files, FILE_ORDER);
+		FileListSnapshot next = FileListSnapshot.of(listing.contentHash, listing.files);
+		FileListChanges changes = diff(previous, next, listing.files);
+		snapshots.put(user, next);
+		return changes;
+	}
+
+	/**
+	 * Returns snapshot of given user or null if the user has not been synced yet
+	 */
+	public FileListSnapshot getSnapshot(String user) {
+		return snapshots.get(user);
+	}
+
+	/**
+	 * Sets snapshot of given user, e.g. one persisted before application restart
+	 */
+	public void setSnapshot(String user, FileListSnapshot snapshot) {
+		snapshots.put(user, snapshot);
+	}
+
+	/**
+	 * Forgets snapshot of given user, next sync reports all files as added
+	 */
+	public void forget(String user) {
+		snapshots.remove(user);
+	}
+
+	/**
+	 * Requests listing, refreshing the token and repeating request once if
+	 * backend rejects it
+	 */
+	private static Listing fetch(String uri, SequencingOAuth2Client client, ListingParser parser)
+			throws NonAuthorizedException
+	{
+		try {
+			Token token = client.getValidToken();
+			try {
+				return HttpHelper.doOauthSecureGet(uri, token, parser);
+			} catch (HttpStatusException e) {
+				if (e.getStatusCode() != HttpStatus.SC_UNAUTHORIZED)
+					throw e;
+				return HttpHelper.doOauthSecureGet(uri, client.getValidToken(token), parser);
+			}
+		} catch (BasicAuthenticationFailedException e) {
+			throw new NonAuthorizedException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Compares snapshots by walking both in order of file id
+	 * @param files files of the next snapshot in the same order
+	 */
+	private static FileListChanges diff(FileListSnapshot previous, FileListSnapshot next, List<FileMetadata> files)
+	{
+		List<FileMetadata> added = new ArrayList<FileMetadata>();
+		List<FileMetadata> modified = new ArrayList<FileMetadata>();
+		List<String> removed = new ArrayList<String>();
+
+		int previousSize = previous != null ? previous.size() : 0;
+		int i = 0;
+		int j = 0;
+		while (i < previousSize || j < next.size())
+		{
+			int order;
+			if (i == previousSize)
+				order = 1;
+			else if (j == next.size())
+				order = -1;
+			else
+				order = FileListSnapshot.ID_ORDER.compare(previous.getId(i), next.getId(j));
+
+			if (order < 0) {
+				removed.add(previous.getId(i++));
+			} else if (order > 0) {
+				added.add(files.get(j++));
+			} else {
+				if (previous.getHash(i) != next.getHash(j))
+					modified.add(files.get(j));
+				i++;
+				j++;
+			}
+		}
+		return new FileListChanges(added, modified, removed, next.size());
+	}
+
+	private static final Comparator<FileMetadata> FILE_ORDER = new Comparator<FileMetadata>() {
+		public int compare(FileMetadata a, FileMetadata b) {
+			return FileListSnapshot.ID_ORDER.compare(a.getId(), b.getId());
+		}
+	};
+
+	/**
+	 * Listing received, files are null if it is the same as before
+	 */
+	static class Listing
+	{
+		final long contentHash;
+		final List<FileMetadata> files;
+
+		Listing(long contentHash, List<FileMetadata> files) {
+			this.contentHash = contentHash;
+			this.files = files;
+		}
+	}
+
+	/**
+	 * Hashes reply while receiving it and parses it only if the hash differs
+	 * from the one of previous snapshot
+	 */
+	static class ListingParser implements ResponseParser<Listing>
+	{
+		private final FileListSnapshot previous;
+
+		ListingParser(FileListSnapshot previous) {
+			this.previous = previous;
+		}
+
+		@Override
+		public Listing parse(InputStream content, Charset charset) throws IOException
+		{
+			ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+			byte[] buffer = new byte[8192];
+			long hash = FileListSnapshot.hashStart();
+			int read;
+			while ((read = content.read(buffer)) != -1) {
+				hash = FileListSnapshot.hash(hash, buffer, 0, read);
+				body.write(buffer, 0, read);
+			}
+
+			if (previous != null && previous.getContentHash() == hash)
+				return new Listing(hash, null);
+
+			List<FileMetadata> files = FileMetadataParser.INSTANCE.parse(new ByteArrayInputStream(body.toByteArray()), charset);
+			return new Listing(hash, files);
+		}
+	}
+}
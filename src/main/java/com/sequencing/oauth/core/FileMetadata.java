@@ -0,0 +1,112 @@
+package com.sequencing.oauth.core;
+
+import java.io.Serializable;
+
+/**
+ * Class that defines attributes of a file stored at sequencing.com
+ * as returned by DataSourceList endpoint
+ */
+public class FileMetadata implements Serializable
+{
+	private static final long serialVersionUID = 5094018634018830165L;
+
+	private String id;
+	private String name;
+	private String ext;
+	private String fileCategory;
+	private String fileSubType;
+	private String fileType;
+	private String friendlyDesc1;
+	private String friendlyDesc2;
+	private String population;
+	private String refVersion;
+	private String sex;
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getExt() {
+		return ext;
+	}
+
+	public void setExt(String ext) {
+		this.ext = ext;
+	}
+
+	public String getFileCategory() {
+		return fileCategory;
+	}
+
+	public void setFileCategory(String fileCategory) {
+		this.fileCategory = fileCategory;
+	}
+
+	public String getFileSubType() {
+		return fileSubType;
+	}
+
+	public void setFileSubType(String fileSubType) {
+		this.fileSubType = fileSubType;
+	}
+
+	public String getFileType() {
+		return fileType;
+	}
+
+	public void setFileType(String fileType) {
+		this.fileType = fileType;
+	}
+
+	public String getFriendlyDesc1() {
+		return friendlyDesc1;
+	}
+
+	public void setFriendlyDesc1(String friendlyDesc1) {
+		this.friendlyDesc1 = friendlyDesc1;
+	}
+
+	public String getFriendlyDesc2() {
+		return friendlyDesc2;
+	}
+
+	public void setFriendlyDesc2(String friendlyDesc2) {
+		this.friendlyDesc2 = friendlyDesc2;
+	}
+
+	public String getPopulation() {
+		return population;
+	}
+
+	public void setPopulation(String population) {
+		this.population = population;
+	}
+
+	public String getRefVersion() {
+		return refVersion;
+	}
+
+	public void setRefVersion(String refVersion) {
+		this.refVersion = refVersion;
+	}
+
+	public String getSex() {
+		return sex;
+	}
+
+	public void setSex(String sex) {
+		this.sex = sex;
+	}
+}
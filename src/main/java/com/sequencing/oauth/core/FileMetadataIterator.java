@@ -0,0 +1,129 @@
+package com.sequencing.oauth.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.JsonReader;
+import com.sequencing.oauth.helper.FileMetadataParser;
+import com.sequencing.oauth.helper.StreamingResponse;
+
+/**
+ * Reads DataSourceList reply one file at a time as it arrives, so memory use
+ * does not depend on number of files. Connection is released once the last
+ * file has been read or the iterator is closed, whichever comes first.
+ * I/O failures while iterating are thrown as UncheckedIOException.
+ */
+public class FileMetadataIterator implements Iterator<FileMetadata>, Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(FileMetadataIterator.class);
+
+	private final StreamingResponse response;
+	private final InputStream content;
+	private final JsonReader reader;
+	private boolean closed;
+
+	FileMetadataIterator(StreamingResponse response) throws IOException
+	{
+		this.response = response;
+		try {
+			content = response.getContent();
+			reader = new JsonReader(new InputStreamReader(content, response.getCharset()));
+			reader.beginArray();
+		} catch (IOException e) {
+			response.close();
+			throw e;
+		} catch (RuntimeException e) {
+			response.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		if (closed)
+			return false;
+
+		try {
+			if (reader.hasNext())
+				return true;
+
+			reader.endArray();
+			// Connection is reused only if content has been read to the end
+			byte[] buffer = new byte[512];
+			while (content.read(buffer) != -1);
+			close();
+			return false;
+		} catch (IOException e) {
+			closeQuietly();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public FileMetadata next()
+	{
+		if (hasNext() == false)
+			throw new NoSuchElementException();
+
+		try {
+			return FileMetadataParser.readFileMetadata(reader);
+		} catch (IOException e) {
+			closeQuietly();
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops reading, files not read yet are discarded
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+
+		closed = true;
+		response.close();
+	}
+
+	/**
+	 * Returns sequential stream of the remaining files. Closing the stream
+	 * closes the iterator.
+	 */
+	public Stream<FileMetadata> stream()
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(new Runnable() {
+					public void run() {
+						closeQuietly();
+					}
+				});
+	}
+
+	private void closeQuietly()
+	{
+		try {
+			close();
+		} catch (IOException e) {
+			log.debug("Error closing DataSourceList response", e);
+		}
+	}
+}
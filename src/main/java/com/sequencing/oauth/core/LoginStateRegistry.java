@@ -0,0 +1,93 @@
+package com.sequencing.oauth.core;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.helper.StateGenerator;
+
+/**
+ * Process-wide store of oAuth2 states issued for login redirects that are
+ * waiting for authorization callback. Every login gets a state of its own,
+ * which can be used only once. States expire after configured time and the
+ * oldest ones are dropped when too many logins are pending.
+ */
+public class LoginStateRegistry
+{
+	/**
+	 * Registry shared by all clients
+	 */
+	private static volatile LoginStateRegistry instance;
+
+	private final Cache<String, Boolean> pendingStates;
+
+	public LoginStateRegistry(AuthenticationParameters parameters)
+	{
+		pendingStates = Caffeine.newBuilder()
+				.maximumSize(parameters.getMaxPendingLogins())
+				.expireAfterWrite(parameters.getLoginStateTtl(), TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Creates shared registry from given configuration. Registry is created only
+	 * once, subsequent calls have no effect until {@link #shutdown()} is called.
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (instance != null)
+			return;
+
+		synchronized (LoginStateRegistry.class) {
+			if (instance == null)
+				instance = new LoginStateRegistry(parameters);
+		}
+	}
+
+	/**
+	 * Returns shared registry, creating it with default settings if it has
+	 * not been configured yet
+	 */
+	public static LoginStateRegistry getInstance()
+	{
+		LoginStateRegistry registry = instance;
+		if (registry == null) {
+			configure(new AuthenticationParameters.ConfigurationBuilder().build());
+			registry = instance;
+		}
+		return registry;
+	}
+
+	/**
+	 * Drops shared registry along with pending states
+	 */
+	public static synchronized void shutdown() {
+		instance = null;
+	}
+
+	/**
+	 * Generates and remembers state for a new login
+	 */
+	public String issue()
+	{
+		String state = StateGenerator.nextState();
+		pendingStates.put(state, Boolean.TRUE);
+		return state;
+	}
+
+	/**
+	 * Checks state returned to authorization callback and forgets it
+	 * @return true if state has been issued and has not expired nor been used yet
+	 */
+	public boolean consume(String state) {
+		return state != null && pendingStates.asMap().remove(state) != null;
+	}
+
+	/**
+	 * Returns approximate number of pending logins
+	 */
+	public long getPendingCount() {
+		return pendingStates.estimatedSize();
+	}
+}
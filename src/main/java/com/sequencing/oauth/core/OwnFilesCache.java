@@ -0,0 +1,208 @@
+package com.sequencing.oauth.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.exception.NonAuthorizedException;
+
+/**
+ * Bounded cache of own files listings keyed by user. Total size is limited by
+ * approximate heap weight of entries, eviction takes access frequency into
+ * account and every entry expires after configured TTL. Text and parsed form
+ * of a listing are separate entries, each expiring TTL after it has been
+ * fetched. One instance is meant to be shared by CachingSequencingFileMetadataApi
+ * of all users.
+ */
+public class OwnFilesCache
+{
+	/**
+	 * Approximate heap overhead of a single object
+	 */
+	private static final int OBJECT_OVERHEAD = 48;
+
+	private final Cache<Key, Entry> cache;
+
+	public OwnFilesCache(AuthenticationParameters parameters)
+	{
+		cache = Caffeine.newBuilder()
+				.maximumWeight(parameters.getOwnFilesCacheMaxWeight())
+				.weigher(new EntryWeigher())
+				.expireAfterWrite(parameters.getOwnFilesCacheTtl(), TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Drops cached listing of given user, e.g. after the user has uploaded a file
+	 */
+	public void invalidate(String user) {
+		cache.invalidate(new Key(user, false));
+		cache.invalidate(new Key(user, true));
+	}
+
+	/**
+	 * Drops cached listings of all users
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Returns number of cached listings, counting text and parsed form apart
+	 */
+	public long size() {
+		return cache.estimatedSize();
+	}
+
+	/**
+	 * Returns hit, miss and eviction statistics
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * Returns text listing of given user, loading it if it is not cached.
+	 * Concurrent misses of the same user share a single load, and listing
+	 * loaded while the user is being invalidated is dropped.
+	 */
+	String getText(String user, final Loader<String> loader) throws NonAuthorizedException
+	{
+		Entry entry = get(new Key(user, false), new Loader<Entry>() {
+			public Entry load() throws NonAuthorizedException {
+				String text = loader.load();
+				return text != null ? new Entry(text, null) : null;
+			}
+		});
+		return entry != null ? entry.text : null;
+	}
+
+	/**
+	 * Returns parsed listing of given user, loading it if it is not cached
+	 * @see #getText(String, Loader)
+	 */
+	List<FileMetadata> getFiles(String user, final Loader<List<FileMetadata>> loader) throws NonAuthorizedException
+	{
+		Entry entry = get(new Key(user, true), new Loader<Entry>() {
+			public Entry load() throws NonAuthorizedException {
+				List<FileMetadata> files = loader.load();
+				return files != null ? new Entry(null, files) : null;
+			}
+		});
+		return entry != null ? entry.files : null;
+	}
+
+	/**
+	 * Loads entry within Caffeine's computation of the key, which invalidation
+	 * of the key waits for, so that invalidation always wins over the load
+	 */
+	private Entry get(Key key, final Loader<Entry> loader) throws NonAuthorizedException
+	{
+		try {
+			return cache.get(key, new Function<Key, Entry>() {
+				public Entry apply(Key k) {
+					try {
+						return loader.load();
+					} catch (NonAuthorizedException e) {
+						throw new LoadException(e);
+					}
+				}
+			});
+		} catch (LoadException e) {
+			throw (NonAuthorizedException) e.getCause();
+		}
+	}
+
+	/**
+	 * Fetches listing of a user from backend
+	 */
+	interface Loader<T>
+	{
+		T load() throws NonAuthorizedException;
+	}
+
+	/**
+	 * Carries checked failure of a load out of Caffeine
+	 */
+	private static class LoadException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		LoadException(NonAuthorizedException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * User along with form of the listing
+	 */
+	static class Key
+	{
+		final String user;
+		final boolean files;
+
+		Key(String user, boolean files) {
+			this.user = user;
+			this.files = files;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (o instanceof Key == false)
+				return false;
+			Key other = (Key) o;
+			return files == other.files && user.equals(other.user);
+		}
+
+		@Override
+		public int hashCode() {
+			return user.hashCode() * 2 + (files ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Listing of a single user in one of the forms, the other one is null
+	 */
+	static class Entry
+	{
+		final String text;
+		final List<FileMetadata> files;
+
+		Entry(String text, List<FileMetadata> files) {
+			this.text = text;
+			this.files = files;
+		}
+	}
+
+	static class EntryWeigher implements Weigher<Key, Entry>
+	{
+		@Override
+		public int weigh(Key key, Entry entry)
+		{
+			long weight = 2 * OBJECT_OVERHEAD + weigh(key.user);
+			weight += weigh(entry.text);
+			if (entry.files != null) {
+				for (FileMetadata file : entry.files) {
+					weight += OBJECT_OVERHEAD
+							+ weigh(file.getId()) + weigh(file.getName()) + weigh(file.getExt())
+							+ weigh(file.getFileCategory()) + weigh(file.getFileSubType())
+							+ weigh(file.getFileType()) + weigh(file.getFriendlyDesc1())
+							+ weigh(file.getFriendlyDesc2()) + weigh(file.getPopulation())
+							+ weigh(file.getRefVersion()) + weigh(file.getSex());
+				}
+			}
+			return (int) Math.min(weight, Integer.MAX_VALUE);
+		}
+
+		private static long weigh(String value) {
+			return value == null ? 0 : OBJECT_OVERHEAD + 2L * value.length();
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package com.sequencing.oauth.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.helper.AsyncHttpHelper;
+import com.sequencing.oauth.helper.CacheableResponse;
+import com.sequencing.oauth.helper.FileMetadataParser;
+
+/**
+ * Process-wide cache of sample files, which are the same for every user.
+ * Fresh entries are served straight away. Stale entries are served while
+ * one background conditional GET revalidates them. Missing entries are
+ * loaded by a single request, which concurrent callers share.
+ * <p>
+ * If sampleFilesCacheFile is set, entries are also kept in that file and read
+ * back when the cache is created, so that sample files are served right after
+ * application restart. Entries read from the file are revalidated in the
+ * background on first use, as long as they are not older than stale entries
+ * may be. File is written by a single background thread, one write at a time.
+ */
+public class SampleFilesCache
+{
+	private static final Logger log = LoggerFactory.getLogger(SampleFilesCache.class);
+
+	/**
+	 * Cache shared by all clients
+	 */
+	private static volatile SampleFilesCache instance;
+
+	private final long ttl;
+	private final long staleTtl;
+	private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+	private final SampleFilesDiskCache diskCache;
+	private final ThreadPoolExecutor diskWriter;
+	private final AtomicBoolean writeQueued = new AtomicBoolean();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong staleHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong revalidationCount = new AtomicLong();
+	private final AtomicLong notModifiedCount = new AtomicLong();
+	private final AtomicLong failureCount = new AtomicLong();
+
+	public SampleFilesCache(AuthenticationParameters parameters) {
+		long cacheTtl = parameters.getSampleFilesCacheTtl();
+		// Cache enabled by the file only would revalidate on every request with TTL of 0
+		if (cacheTtl <= 0 && parameters.getSampleFilesCacheFile() != null)
+			cacheTtl = AuthenticationParameters.DEFAULT_PERSISTED_SAMPLE_FILES_CACHE_TTL;
+		ttl = cacheTtl * 1000;
+		staleTtl = parameters.getSampleFilesStaleTtl() * 1000;
+
+		if (parameters.getSampleFilesCacheFile() != null) {
+			diskCache = new SampleFilesDiskCache(new File(parameters.getSampleFilesCacheFile()));
+			for (Map.Entry<String, Entry> e : diskCache.load().entrySet()) {
+				Slot slot = new Slot();
+				slot.entry = e.getValue();
+				slots.put(e.getKey(), slot);
+			}
+			log.debug("Loaded {} sample files entries from {}", slots.size(), parameters.getSampleFilesCacheFile());
+
+			diskWriter = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new TokenRefreshScheduler.DaemonThreadFactory("sequencing-sample-files-writer-"));
+			diskWriter.allowCoreThreadTimeOut(true);
+		} else {
+			diskCache = null;
+			diskWriter = null;
+		}
+	}
+
+	/**
+	 * Creates shared cache from given configuration. Cache is created only
+	 * once, subsequent calls have no effect until {@link #shutdown()} is called.
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (instance != null)
+			return;
+
+		synchronized (SampleFilesCache.class) {
+			if (instance == null)
+				instance = new SampleFilesCache(parameters);
+		}
+	}
+
+	/**
+	 * Returns shared cache, creating it with default settings if it has
+	 * not been configured yet
+	 */
+	public static SampleFilesCache getInstance()
+	{
+		SampleFilesCache cache = instance;
+		if (cache == null) {
+			configure(new AuthenticationParameters.ConfigurationBuilder().build());
+			cache = instance;
+		}
+		return cache;
+	}
+
+	/**
+	 * Drops shared cache along with its content, letting write of cache file
+	 * in progress finish
+	 */
+	public static synchronized void shutdown()
+	{
+		if (instance != null && instance.diskWriter != null)
+			instance.diskWriter.shutdown();
+		instance = null;
+	}
+
+	/**
+	 * Returns cached reply of given DataSourceList URL, loading or
+	 * revalidating it if needed
+	 * @param uri DataSourceList URL
+	 * @param token token used if request to backend is needed
+	 */
+	public CompletableFuture<Entry> get(String uri, Token token)
+	{
+		Slot slot = getSlot(uri);
+		Entry entry = slot.entry;
+
+		if (entry != null) {
+			long age = System.currentTimeMillis() - entry.fetchedAt;
+			// Entry read from the cache file is revalidated even if it is fresh
+			if (age < ttl && entry.seeded == false) {
+				hitCount.incrementAndGet();
+				return CompletableFuture.completedFuture(entry);
+			}
+			if (age < ttl + staleTtl) {
+				staleHitCount.incrementAndGet();
+				slot.revalidate(uri, token);
+				return CompletableFuture.completedFuture(entry);
+			}
+		}
+
+		missCount.incrementAndGet();
+		return slot.revalidate(uri, token);
+	}
+
+	/**
+	 * Drops all cached entries
+	 */
+	public void clear() {
+		slots.clear();
+	}
+
+	/**
+	 * Returns number of requests served with fresh entries
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns number of requests served with stale entries
+	 */
+	public long getStaleHitCount() {
+		return staleHitCount.get();
+	}
+
+	/**
+	 * Returns number of requests that had to wait for backend
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Returns number of requests sent to backend
+	 */
+	public long getRevalidationCount() {
+		return revalidationCount.get();
+	}
+
+	/**
+	 * Returns number of requests backend replied 304 to
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedCount.get();
+	}
+
+	/**
+	 * Returns number of failed requests to backend
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+
+	/**
+	 * Writes current entries to the cache file in the background. Writes
+	 * run one after another and take entries at the time they start, so a
+	 * later write never leaves older entries in the file than an earlier one.
+	 */
+	private void persist()
+	{
+		if (diskCache == null || writeQueued.compareAndSet(false, true) == false)
+			return;
+
+		try {
+			diskWriter.execute(new Runnable() {
+				public void run() {
+					writeQueued.set(false);
+					Map<String, Entry> entries = new HashMap<String, Entry>();
+					for (Map.Entry<String, Slot> e : slots.entrySet()) {
+						Entry entry = e.getValue().entry;
+						if (entry != null)
+							entries.put(e.getKey(), entry);
+					}
+					diskCache.write(entries);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.debug("Sample files cache has been shut down, file is not written");
+		}
+	}
+
+	private Slot getSlot(String uri)
+	{
+		Slot slot = slots.get(uri);
+		if (slot == null) {
+			Slot created = new Slot();
+			slot = slots.putIfAbsent(uri, created);
+			if (slot == null)
+				slot = created;
+		}
+		return slot;
+	}
+
+	/**
+	 * Cached entry of a single URL along with request refreshing it
+	 */
+	class Slot
+	{
+		private volatile Entry entry;
+		private final AtomicReference<CompletableFuture<Entry>> inFlight = new AtomicReference<CompletableFuture<Entry>>();
+
+		CompletableFuture<Entry> revalidate(final String uri, Token token)
+		{
+			final CompletableFuture<Entry> result = new CompletableFuture<Entry>();
+			while (inFlight.compareAndSet(null, result) == false) {
+				CompletableFuture<Entry> current = inFlight.get();
+				if (current != null)
+					return current;
+			}
+
+			revalidationCount.incrementAndGet();
+			final Entry previous = entry;
+			String etag = previous != null ? previous.etag : null;
+			String lastModified = previous != null ? previous.lastModified : null;
+
+			AsyncHttpHelper.doOauthSecureConditionalGet(uri, token, etag, lastModified)
+					.whenComplete(new BiConsumer<CacheableResponse, Throwable>() {
+						public void accept(CacheableResponse response, Throwable e) {
+							if (e != null) {
+								failureCount.incrementAndGet();
+								log.debug("Error revalidating sample files", e);
+								inFlight.set(null);
+								result.completeExceptionally(e);
+								return;
+							}
+
+							if (response.isNotModified() && previous == null) {
+								// Nothing to keep serving, content has to be requested without validators
+								failureCount.incrementAndGet();
+								inFlight.set(null);
+								result.completeExceptionally(new IOException("Not modified reply to unconditional request of " + uri));
+								return;
+							}
+
+							Entry fresh;
+							if (response.isNotModified()) {
+								notModifiedCount.incrementAndGet();
+								previous.fetchedAt = System.currentTimeMillis();
+								previous.seeded = false;
+								fresh = previous;
+							} else {
+								fresh = new Entry(response);
+							}
+
+							entry = fresh;
+							inFlight.set(null);
+							result.complete(fresh);
+
+							if (fresh != previous)
+								persist();
+						}
+					});
+
+			return result;
+		}
+	}
+
+	/**
+	 * Cached DataSourceList reply. Text and parsed form are built on first use,
+	 * the latter from binary form if entry has been read from the cache file.
+	 */
+	public static class Entry
+	{
+		private final byte[] content;
+		private final Charset charset;
+		private final String etag;
+		private final String lastModified;
+		private volatile long fetchedAt;
+		private volatile String text;
+		private volatile List<FileMetadata> files;
+		private final ByteBuffer records;
+
+		/**
+		 * Whether entry has been read from the cache file and not revalidated since
+		 */
+		volatile boolean seeded;
+
+		Entry(CacheableResponse response) {
+			content = response.getContent();
+			charset = response.getCharset();
+			etag = response.getEtag();
+			lastModified = response.getLastModified();
+			fetchedAt = System.currentTimeMillis();
+			records = null;
+		}
+
+		/**
+		 * Creates entry read from the cache file
+		 * @param records files as written by SampleFilesDiskCache
+		 */
+		Entry(byte[] content, Charset charset, String etag, String lastModified, long fetchedAt, ByteBuffer records) {
+			this.content = content;
+			this.charset = charset;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.fetchedAt = fetchedAt;
+			this.records = records;
+			seeded = true;
+		}
+
+		/**
+		 * Returns reply as JSON text
+		 */
+		public String getText()
+		{
+			String result = text;
+			if (result == null)
+				text = result = new String(content, charset);
+			return result;
+		}
+
+		/**
+		 * Returns reply as file metadata
+		 */
+		public List<FileMetadata> getFiles() throws IOException
+		{
+			List<FileMetadata> result = files;
+			if (result == null) {
+				if (records != null)
+					result = SampleFilesDiskCache.readFiles(records);
+				else
+					result = FileMetadataParser.INSTANCE.parse(new ByteArrayInputStream(content), charset);
+				files = result = Collections.unmodifiableList(result);
+			}
+			return result;
+		}
+
+		public long getFetchedAt() {
+			return fetchedAt;
+		}
+
+		byte[] getContent() {
+			return content;
+		}
+
+		Charset getCharset() {
+			return charset;
+		}
+
+		String getEtag() {
+			return etag;
+		}
+
+		String getLastModified() {
+			return lastModified;
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.sequencing.oauth.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps sample files of {@link SampleFilesCache} in a local file, so that a
+ * freshly started application serves them before it has talked to backend.
+ * Every entry holds the reply as received along with its files in binary
+ * form, which is decoded instead of parsing JSON. File is read in one go and
+ * not held open, so that it can be replaced on every platform. File is
+ * checksummed and versioned, file of unknown version or damaged one is
+ * ignored and replaced on next write.
+ */
+class SampleFilesDiskCache
+{
+	private static final Logger log = LoggerFactory.getLogger(SampleFilesDiskCache.class);
+
+	/**
+	 * File header, "SQSF" followed by format version, CRC32 and length of the rest
+	 */
+	private static final int MAGIC = 0x53515346;
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 20;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+
+	SampleFilesDiskCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads entries kept in the file
+	 * @return entries by DataSourceList URL, empty if there is no usable file
+	 */
+	Map<String, SampleFilesCache.Entry> load()
+	{
+		if (file.exists() == false)
+			return Collections.emptyMap();
+
+		try {
+			return read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+		} catch (IOException e) {
+			log.debug("Error reading sample files from " + file, e);
+		} catch (RuntimeException e) {
+			log.debug("Sample files in " + file + " are damaged", e);
+		}
+		return Collections.emptyMap();
+	}
+
+	private Map<String, SampleFilesCache.Entry> read(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC)
+			throw new IOException("Not a sample files cache");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported sample files cache version " + version);
+
+		long checksum = buffer.getLong();
+		int length = buffer.getInt();
+		if (length != buffer.remaining())
+			throw new IOException("Sample files cache is truncated");
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate());
+		if (crc.getValue() != checksum)
+			throw new IOException("Sample files cache checksum mismatch");
+
+		Map<String, SampleFilesCache.Entry> entries = new HashMap<String, SampleFilesCache.Entry>();
+		int count = buffer.getInt();
+		for (int i = 0; i < count; i++) {
+			String uri = readString(buffer);
+			String etag = readString(buffer);
+			String lastModified = readString(buffer);
+			Charset charset = Charset.forName(readString(buffer));
+			long fetchedAt = buffer.getLong();
+
+			byte[] content = new byte[buffer.getInt()];
+			buffer.get(content);
+
+			// Files are decoded when they are asked for
+			int filesLength = buffer.getInt();
+			ByteBuffer files = buffer.slice();
+			files.limit(filesLength);
+			buffer.position(buffer.position() + filesLength);
+
+			entries.put(uri, new SampleFilesCache.Entry(content, charset, etag, lastModified, fetchedAt, files));
+		}
+		return entries;
+	}
+
+	/**
+	 * Replaces the file with one holding given entries
+	 */
+	synchronized void write(Map<String, SampleFilesCache.Entry> entries)
+	{
+		File written = new File(file.getPath() + ".tmp");
+		try {
+			byte[] payload = toBytes(entries);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+
+			FileOutputStream out = new FileOutputStream(written);
+			try {
+				DataOutputStream data = new DataOutputStream(out);
+				data.writeInt(MAGIC);
+				data.writeInt(VERSION);
+				data.writeLong(crc.getValue());
+				data.writeInt(payload.length);
+				data.write(payload);
+				data.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(written.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			log.debug("Error writing sample files to " + file, e);
+			written.delete();
+		}
+	}
+
+	private static byte[] toBytes(Map<String, SampleFilesCache.Entry> entries) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+		DataOutputStream out = new DataOutputStream(bytes);
+		ByteArrayOutputStream filesBytes = new ByteArrayOutputStream(8192);
+		DataOutputStream filesOut = new DataOutputStream(filesBytes);
+
+		out.writeInt(entries.size());
+		for (Map.Entry<String, SampleFilesCache.Entry> e : entries.entrySet())
+		{
+			SampleFilesCache.Entry entry = e.getValue();
+			writeString(out, e.getKey());
+			writeString(out, entry.getEtag());
+			writeString(out, entry.getLastModified());
+			writeString(out, entry.getCharset().name());
+			out.writeLong(entry.getFetchedAt());
+
+			out.writeInt(entry.getContent().length);
+			out.write(entry.getContent());
+
+			filesBytes.reset();
+			List<FileMetadata> files = entry.getFiles();
+			filesOut.writeInt(files.size());
+			for (FileMetadata file : files)
+				writeFile(filesOut, file);
+			filesOut.flush();
+			out.writeInt(filesBytes.size());
+			filesBytes.writeTo(out);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes files written by {@link #writeFile}
+	 */
+	static List<FileMetadata> readFiles(ByteBuffer buffer)
+	{
+		ByteBuffer in = buffer.duplicate();
+		int count = in.getInt();
+		List<FileMetadata> files = new ArrayList<FileMetadata>(count);
+		for (int i = 0; i < count; i++) {
+			FileMetadata file = new FileMetadata();
+			file.setId(readString(in));
+			file.setName(readString(in));
+			file.setExt(readString(in));
+			file.setFileCategory(readString(in));
+			file.setFileSubType(readString(in));
+			file.setFileType(readString(in));
+			file.setFriendlyDesc1(readString(in));
+			file.setFriendlyDesc2(readString(in));
+			file.setPopulation(readString(in));
+			file.setRefVersion(readString(in));
+			file.setSex(readString(in));
+			files.add(file);
+		}
+		return files;
+	}
+
+	private static void writeFile(DataOutputStream out, FileMetadata file) throws IOException
+	{
+		writeString(out, file.getId());
+		writeString(out, file.getName());
+		writeString(out, file.getExt());
+		writeString(out, file.getFileCategory());
+		writeString(out, file.getFileSubType());
+		writeString(out, file.getFileType());
+		writeString(out, file.getFriendlyDesc1());
+		writeString(out, file.getFriendlyDesc2());
+		writeString(out, file.getPopulation());
+		writeString(out, file.getRefVersion());
+		writeString(out, file.getSex());
+	}
+
+	/**
+	 * Writes UTF-8 bytes of a string prefixed by their number, -1 for null
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in)
+	{
+		int length = in.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
@@ -1,6 +1,9 @@
 package com.sequencing.oauth.core;
 
+import java.util.List;
+
 import com.sequencing.oauth.exception.NonAuthorizedException;
+import com.sequencing.oauth.helper.FileMetadataParser;
 
 /**
  * Interface that defines methods for accessing file metadata stored 
@@ -18,4 +21,22 @@ public interface SequencingFileMetadataApi {
 	 * @return String json of file content
 	 */
 	public String getOwnFiles() throws NonAuthorizedException;
+
+	/**
+	 * Returns sample files from sequencing.com, parsed from {@link #getSampleFiles()}
+	 * unless implementation does better
+	 * @return List of file metadata
+	 */
+	public default List<FileMetadata> getSampleFileMetadata() throws NonAuthorizedException {
+		return FileMetadataParser.parse(getSampleFiles());
+	}
+
+	/**
+	 * Returns own files from sequencing.com, parsed from {@link #getOwnFiles()}
+	 * unless implementation does better
+	 * @return List of file metadata
+	 */
+	public default List<FileMetadata> getOwnFileMetadata() throws NonAuthorizedException {
+		return FileMetadataParser.parse(getOwnFiles());
+	}
 }
@@ -1,6 +1,7 @@
 package com.sequencing.oauth.core;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.sequencing.oauth.config.AuthenticationParameters;
 import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
@@ -12,13 +13,15 @@ import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
 public interface SequencingOAuth2Client
 {
 	/**
-	 * Returns a map of parameters needed for an initial GET redirect to sequencing authentication endpoint
+	 * Returns a map of parameters needed for an initial GET redirect to sequencing authentication endpoint.
+	 * Every call issues a new single-use state.
 	 * @return Map map with parameters, where key is parameter name
 	 */
 	public Map<String, String> getHttpParametersForRedirect();
 
 	/**
-	 * Returns query needed for initial redirect to sequencing authentication endpoint
+	 * Returns query needed for initial redirect to sequencing authentication endpoint.
+	 * Every call issues a new single-use state.
 	 */
 	public String getLoginRedirectUrl();
 
@@ -43,4 +46,59 @@ public interface SequencingOAuth2Client
 	 * Returns current token
 	 */
 	public Token getToken();
+	
+	/**
+	 * Returns token that is effective for a while, refreshing it beforehand
+	 * if it is about to expire. Concurrent callers share a single refresh.
+	 * Implementations that do not refresh tokens return the current one.
+	 */
+	public default Token getValidToken() throws BasicAuthenticationFailedException
+	{
+		Token token = getToken();
+		if (token == null)
+			throw new BasicAuthenticationFailedException("Client has not been authorized");
+		return token;
+	}
+	
+	/**
+	 * Returns token to be used instead of the one backend has rejected,
+	 * refreshing it unless it has already been replaced. Concurrent callers
+	 * share a single refresh. Implementations that do not refresh tokens
+	 * return the current one.
+	 */
+	public default Token getValidToken(Token rejected) throws BasicAuthenticationFailedException {
+		return getValidToken();
+	}
+	
+	/**
+	 * Same as {@link #getValidToken()}, refreshing the token without blocking
+	 * the caller. Future fails with BasicAuthenticationFailedException.
+	 * Calls the blocking method unless implementation does better.
+	 */
+	public default CompletableFuture<Token> getValidTokenAsync()
+	{
+		CompletableFuture<Token> result = new CompletableFuture<Token>();
+		try {
+			result.complete(getValidToken());
+		} catch (BasicAuthenticationFailedException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Same as {@link #getValidToken(Token)}, refreshing the token without
+	 * blocking the caller. Future fails with BasicAuthenticationFailedException.
+	 * Calls the blocking method unless implementation does better.
+	 */
+	public default CompletableFuture<Token> getValidTokenAsync(Token rejected)
+	{
+		CompletableFuture<Token> result = new CompletableFuture<Token>();
+		try {
+			result.complete(getValidToken(rejected));
+		} catch (BasicAuthenticationFailedException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
 }
@@ -0,0 +1,86 @@
+package com.sequencing.oauth.core;
+
+import java.io.IOException;
+
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.exception.BasicAuthenticationFailedException;
+import com.sequencing.oauth.exception.HttpStatusException;
+import com.sequencing.oauth.exception.NonAuthorizedException;
+import com.sequencing.oauth.helper.HttpHelper;
+import com.sequencing.oauth.helper.StreamingResponse;
+
+/**
+ * Lists files of accounts too large to be held in memory at once. Files are
+ * parsed one by one while the reply is being received, callers may stop
+ * reading at any point by closing the iterator.
+ *
+ * <pre>
+ * FileMetadataIterator files = api.iterateOwnFileMetadata();
+ * try {
+ *     while (files.hasNext())
+ *         process(files.next());
+ * } finally {
+ *     files.close();
+ * }
+ * </pre>
+ */
+public class StreamingSequencingFileMetadataApi
+{
+	private static final Logger log = LoggerFactory.getLogger(StreamingSequencingFileMetadataApi.class);
+
+	private final SequencingOAuth2Client client;
+
+	public StreamingSequencingFileMetadataApi(SequencingOAuth2Client client) {
+		this.client = client;
+		HttpHelper.configure(client.getAuthenticationParameters());
+	}
+
+	/**
+	 * Returns sample files from sequencing.com
+	 * @return iterator to be closed by the caller, null if reply could not be received
+	 */
+	public FileMetadataIterator iterateSampleFileMetadata() throws NonAuthorizedException {
+		return iterateFilesByType("sample");
+	}
+
+	/**
+	 * Returns own files from sequencing.com
+	 * @return iterator to be closed by the caller, null if reply could not be received
+	 */
+	public FileMetadataIterator iterateOwnFileMetadata() throws NonAuthorizedException {
+		return iterateFilesByType("uploaded");
+	}
+
+	/**
+	 * Opens listing of files of given type, refreshing the token and
+	 * repeating request once if backend rejects it
+	 */
+	private FileMetadataIterator iterateFilesByType(String fileType) throws NonAuthorizedException
+	{
+		String uri = DefaultAsyncSequencingFileMetadataApi.getFilesUri(client.getAuthenticationParameters(), fileType);
+		try {
+			Token token = client.getValidToken();
+			try {
+				return open(uri, token);
+			} catch (HttpStatusException e) {
+				if (e.getStatusCode() != HttpStatus.SC_UNAUTHORIZED)
+					throw e;
+				return open(uri, client.getValidToken(token));
+			}
+		} catch (BasicAuthenticationFailedException e) {
+			throw new NonAuthorizedException(e.getMessage(), e);
+		} catch (IOException e) {
+			log.debug("Error executing HTTP GET request to " + uri, e);
+			return null;
+		}
+	}
+
+	private static FileMetadataIterator open(String uri, Token token) throws IOException
+	{
+		StreamingResponse response = HttpHelper.openOauthSecureGet(uri, token);
+		return new FileMetadataIterator(response);
+	}
+}
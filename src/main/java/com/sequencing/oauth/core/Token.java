@@ -24,11 +24,21 @@ public class Token implements Serializable
 	 * Access token lifetime
 	 */
 	private long lifetime = 0;
+	
+	/**
+	 * Moment access token expires at, in milliseconds since epoch
+	 */
+	private long expirationTime = 0;
 
 	public Token(String accessToken, String refreshToken, long lifetime) {
+		this(accessToken, refreshToken, lifetime, System.currentTimeMillis() + lifetime * 1000);
+	}
+	
+	public Token(String accessToken, String refreshToken, long lifetime, long expirationTime) {
 		this.accessToken = accessToken;
 		this.refreshToken = refreshToken;
 		this.lifetime = lifetime;
+		this.expirationTime = expirationTime;
 	}
 	
 	public String getAccessToken() {
@@ -42,4 +52,22 @@ public class Token implements Serializable
 	public long getLifeTime() {
 		return lifetime;
 	}
+
+	public long getExpirationTime() {
+		return expirationTime;
+	}
+
+	/**
+	 * Returns number of milliseconds left until access token expires
+	 */
+	public long getTimeToExpiry() {
+		return expirationTime - System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns whether access token has already expired
+	 */
+	public boolean isExpired() {
+		return getTimeToExpiry() <= 0;
+	}
 }
@@ -0,0 +1,452 @@
+package com.sequencing.oauth.core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Process-wide scheduler of token refreshes. Refreshes of all clients are kept
+ * in a single hashed timing wheel driven by one ticker thread, which gives O(1)
+ * scheduling and cancellation. Due refreshes are handed over to a bounded pool
+ * of worker threads that carry out the actual HTTP calls. Workers start at most
+ * refreshBudget refreshes per second, when they fall behind refreshes of tokens
+ * closest to expiry are run first.
+ */
+public class TokenRefreshScheduler
+{
+	private static final Logger log = LoggerFactory.getLogger(TokenRefreshScheduler.class);
+
+	/**
+	 * Number of wheel buckets, must be a power of two
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	/**
+	 * Maximum number of newly scheduled refreshes moved into the wheel per tick
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	/**
+	 * Scheduler shared by all clients
+	 */
+	private static volatile TokenRefreshScheduler instance;
+
+	private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+	private final long tickNanos;
+	private final long startTime;
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final ThreadPoolExecutor workers;
+	private final RefreshBudget budget;
+	private final Thread ticker;
+	private volatile boolean running = true;
+	private long tick;
+
+	private final AtomicInteger scheduledCount = new AtomicInteger();
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong throttledCount = new AtomicLong();
+	private final AtomicLong dispatchSequence = new AtomicLong();
+	private final AtomicLong lastLagMillis = new AtomicLong();
+	private final AtomicLong maxLagMillis = new AtomicLong();
+
+	public TokenRefreshScheduler(AuthenticationParameters parameters)
+	{
+		for (int i = 0; i < wheel.length; i++)
+			wheel[i] = new Bucket();
+
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(parameters.getRefreshTickDuration());
+		startTime = System.nanoTime();
+
+		workers = new ThreadPoolExecutor(parameters.getRefreshThreads(), parameters.getRefreshThreads(),
+				0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+				new DaemonThreadFactory("sequencing-token-refresh-"));
+		budget = parameters.getRefreshBudget() > 0 ? new RefreshBudget(parameters.getRefreshBudget()) : null;
+
+		ticker = new DaemonThreadFactory("sequencing-token-refresh-ticker-").newThread(new Ticker());
+		ticker.start();
+	}
+
+	/**
+	 * Creates shared scheduler from given configuration. Scheduler is created only
+	 * once, subsequent calls have no effect until {@link #shutdown()} is called.
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (instance != null)
+			return;
+
+		synchronized (TokenRefreshScheduler.class) {
+			if (instance == null)
+				instance = new TokenRefreshScheduler(parameters);
+		}
+	}
+
+	/**
+	 * Returns shared scheduler, creating it with default settings if it has
+	 * not been configured yet
+	 */
+	public static TokenRefreshScheduler getInstance()
+	{
+		TokenRefreshScheduler scheduler = instance;
+		if (scheduler == null) {
+			configure(new AuthenticationParameters.ConfigurationBuilder().build());
+			scheduler = instance;
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Stops shared scheduler. Refreshes scheduled so far are dropped.
+	 */
+	public static synchronized void shutdown()
+	{
+		if (instance == null)
+			return;
+
+		instance.stop();
+		instance = null;
+	}
+
+	/**
+	 * Schedules one-off task to be run on a worker thread after given delay
+	 * @return handle that allows to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		return schedule(task, delay, unit, System.currentTimeMillis() + unit.toMillis(delay));
+	}
+
+	/**
+	 * Schedules one-off task to be run on a worker thread after given delay
+	 * @param expirationTime when token refreshed by the task expires, in milliseconds
+	 * since epoch. Tasks with earlier expiration run first when workers fall behind.
+	 * @return handle that allows to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit, long expirationTime)
+	{
+		if (running == false)
+			throw new IllegalStateException("Token refresh scheduler has been stopped");
+
+		Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay), expirationTime);
+		scheduledCount.incrementAndGet();
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Returns number of scheduled refreshes that are not due yet
+	 */
+	public int getScheduledCount() {
+		return scheduledCount.get();
+	}
+
+	/**
+	 * Returns number of due refreshes waiting for a free worker
+	 */
+	public int getWorkQueueDepth() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * Returns number of refreshes that have been run
+	 */
+	public long getExecutedCount() {
+		return executedCount.get();
+	}
+
+	/**
+	 * Returns number of refreshes that had to wait for refresh budget
+	 */
+	public long getThrottledCount() {
+		return throttledCount.get();
+	}
+
+	/**
+	 * Returns how late, in milliseconds, the most recent refresh started
+	 */
+	public long getLastLagMillis() {
+		return lastLagMillis.get();
+	}
+
+	/**
+	 * Returns the largest observed refresh start delay in milliseconds
+	 */
+	public long getMaxLagMillis() {
+		return maxLagMillis.get();
+	}
+
+	private void stop()
+	{
+		running = false;
+		ticker.interrupt();
+		workers.shutdownNow();
+	}
+
+	private void dispatch(Timeout timeout)
+	{
+		scheduledCount.decrementAndGet();
+		workers.execute(new DueRefresh(timeout, dispatchSequence.incrementAndGet()));
+	}
+
+	/**
+	 * Moves newly scheduled timeouts into their buckets
+	 */
+	private void transferPendingTimeouts()
+	{
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			Timeout timeout = pendingTimeouts.poll();
+			if (timeout == null)
+				break;
+			if (timeout.state.get() == Timeout.CANCELLED)
+				continue;
+
+			long calculated = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+			long ticks = Math.max(calculated, tick);
+			wheel[(int) (ticks & (wheel.length - 1))].add(timeout);
+		}
+	}
+
+	private void removeCancelledTimeouts()
+	{
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.bucket != null)
+				timeout.bucket.remove(timeout);
+		}
+	}
+
+	class Ticker implements Runnable
+	{
+		public void run()
+		{
+			while (running) {
+				long deadline = tickNanos * (tick + 1);
+				long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - (System.nanoTime() - startTime) + 999999);
+				if (sleepMillis > 0) {
+					try {
+						Thread.sleep(sleepMillis);
+					} catch (InterruptedException e) {
+						if (running == false)
+							return;
+					}
+					continue;
+				}
+
+				removeCancelledTimeouts();
+				transferPendingTimeouts();
+				wheel[(int) (tick & (wheel.length - 1))].expire(deadline);
+				tick++;
+			}
+		}
+	}
+
+	/**
+	 * Handle of a scheduled task
+	 */
+	public class Timeout
+	{
+		private static final int INIT = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final long expirationTime;
+		private final AtomicInteger state = new AtomicInteger(INIT);
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		Timeout(Runnable task, long deadline, long expirationTime) {
+			this.task = task;
+			this.deadline = deadline;
+			this.expirationTime = expirationTime;
+		}
+
+		/**
+		 * Cancels the task if it has not been started yet
+		 * @return true if task has been cancelled by this call
+		 */
+		public boolean cancel()
+		{
+			if (state.compareAndSet(INIT, CANCELLED) == false)
+				return false;
+
+			scheduledCount.decrementAndGet();
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+
+	/**
+	 * Doubly linked list of timeouts, accessed by ticker thread only
+	 */
+	class Bucket
+	{
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout)
+		{
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout)
+		{
+			if (timeout.prev != null)
+				timeout.prev.next = timeout.next;
+			else
+				head = timeout.next;
+
+			if (timeout.next != null)
+				timeout.next.prev = timeout.prev;
+			else
+				tail = timeout.prev;
+
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		void expire(long deadline)
+		{
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.state.get() == Timeout.CANCELLED) {
+					remove(timeout);
+				} else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+					remove(timeout);
+					if (timeout.state.compareAndSet(Timeout.INIT, Timeout.EXPIRED))
+						dispatch(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * Due refresh waiting for a worker, ordered by expiration of its token
+	 * and then by the order it has become due in
+	 */
+	class DueRefresh implements Runnable, Comparable<DueRefresh>
+	{
+		private final Timeout timeout;
+		private final long sequence;
+
+		DueRefresh(Timeout timeout, long sequence) {
+			this.timeout = timeout;
+			this.sequence = sequence;
+		}
+
+		public void run()
+		{
+			if (budget != null) {
+				try {
+					if (budget.acquire())
+						throttledCount.incrementAndGet();
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+
+			long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime - timeout.deadline);
+			lastLagMillis.set(lag);
+			long max;
+			while (lag > (max = maxLagMillis.get()) && maxLagMillis.compareAndSet(max, lag) == false);
+
+			executedCount.incrementAndGet();
+			try {
+				timeout.task.run();
+			} catch (RuntimeException e) {
+				log.debug("Error occured during scheduled token refresh", e);
+			}
+		}
+
+		public int compareTo(DueRefresh other)
+		{
+			if (timeout.expirationTime != other.timeout.expirationTime)
+				return timeout.expirationTime < other.timeout.expirationTime ? -1 : 1;
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Spaces refresh starts evenly at given rate. Permits unused while idle are
+	 * not saved up, so load on token endpoint does not spike after idle periods.
+	 */
+	static class RefreshBudget
+	{
+		private final long intervalNanos;
+		private long nextFree = System.nanoTime();
+
+		RefreshBudget(int permitsPerSecond) {
+			intervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+		}
+
+		/**
+		 * Takes a permit, waiting until one is available
+		 * @return whether caller had to wait
+		 */
+		boolean acquire() throws InterruptedException
+		{
+			long wait;
+			synchronized (this) {
+				long now = System.nanoTime();
+				nextFree = Math.max(nextFree, now);
+				wait = nextFree - now;
+				nextFree += intervalNanos;
+			}
+
+			if (wait <= 0)
+				return false;
+			TimeUnit.NANOSECONDS.sleep(wait);
+			return true;
+		}
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory
+	{
+		private final String prefix;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
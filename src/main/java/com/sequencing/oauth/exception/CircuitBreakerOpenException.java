@@ -0,0 +1,15 @@
+package com.sequencing.oauth.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of executing request to an endpoint that keeps failing
+ */
+public class CircuitBreakerOpenException extends IOException
+{
+	private static final long serialVersionUID = 5218164795183094123L;
+
+	public CircuitBreakerOpenException(String endpoint) {
+		super("Circuit breaker of " + endpoint + " is open");
+	}
+}
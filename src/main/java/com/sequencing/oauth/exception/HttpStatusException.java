@@ -0,0 +1,33 @@
+package com.sequencing.oauth.exception;
+
+/**
+ * Thrown when sequencing.com backend replies with unexpected HTTP status code
+ */
+public class HttpStatusException extends RuntimeException
+{
+	private static final long serialVersionUID = -2236873505367913387L;
+
+	private final int statusCode;
+	private final String retryAfter;
+
+	public HttpStatusException(String uri, int statusCode) {
+		this(uri, statusCode, null);
+	}
+
+	public HttpStatusException(String uri, int statusCode, String retryAfter) {
+		super(uri + " returned code " + statusCode);
+		this.statusCode = statusCode;
+		this.retryAfter = retryAfter;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Returns value of Retry-After header of the reply, if any
+	 */
+	public String getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,207 @@
+package com.sequencing.oauth.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Transport backed by Apache HttpClient. Blocking requests use connection
+ * pool of HttpHelper, non-blocking ones the one of AsyncHttpHelper, whose
+ * replies are handled on its callback threads.
+ */
+public class ApacheHttpTransport implements HttpTransport
+{
+	@Override
+	public <T> T execute(TransportRequest request, TransportResponseHandler<T> handler) throws IOException
+	{
+		CloseableHttpResponse response = HttpHelper.getConnectionPool().getHttpClient().execute(toHttpRequest(request));
+		try {
+			return handler.handle(new Response(response));
+		} finally {
+			// Connection is reused only if content has been read to the end
+			EntityUtils.consumeQuietly(response.getEntity());
+			response.close();
+		}
+	}
+
+	@Override
+	public StreamingResponse open(TransportRequest request) throws IOException {
+		return new OpenResponse(HttpHelper.getConnectionPool().getHttpClient().execute(toHttpRequest(request)));
+	}
+
+	@Override
+	public <T> CompletableFuture<T> executeAsync(TransportRequest request, final TransportResponseHandler<T> handler)
+	{
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		HttpRequestBase httpRequest;
+		try {
+			httpRequest = toHttpRequest(request);
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		AsyncHttpConnectionPool pool = AsyncHttpHelper.getConnectionPool();
+		final Executor callbackExecutor = pool.getCallbackExecutor();
+		final Future<HttpResponse> exchange = pool.getHttpClient()
+				.execute(httpRequest, new FutureCallback<HttpResponse>() {
+					public void completed(final HttpResponse response) {
+						// Reply is handled off the I/O dispatcher thread along with everything chained to it
+						try {
+							callbackExecutor.execute(new Runnable() {
+								public void run() {
+									try {
+										result.complete(handler.handle(new Response(response)));
+									} catch (Exception e) {
+										result.completeExceptionally(e);
+									} finally {
+										EntityUtils.consumeQuietly(response.getEntity());
+									}
+								}
+							});
+						} catch (RejectedExecutionException e) {
+							result.completeExceptionally(e);
+						}
+					}
+
+					public void failed(Exception e) {
+						result.completeExceptionally(e);
+					}
+
+					public void cancelled() {
+						result.cancel(false);
+					}
+				});
+
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				if (result.isCancelled())
+					exchange.cancel(true);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Opens connections in pools of both blocking and non-blocking requests,
+	 * as file listings go through the latter
+	 */
+	@Override
+	public int preconnect(URI uri, int count) throws IOException
+	{
+		int opened = HttpHelper.getConnectionPool().preconnect(uri, count);
+		return opened + AsyncHttpHelper.getConnectionPool().preconnect(uri, count);
+	}
+
+	/**
+	 * Does nothing as connection pools are closed along with helpers
+	 */
+	@Override
+	public void close() {
+	}
+
+	private static HttpRequestBase toHttpRequest(TransportRequest request) throws IOException
+	{
+		HttpRequestBase httpRequest;
+		if (TransportRequest.METHOD_POST.equals(request.getMethod())) {
+			HttpPost post = new HttpPost(request.getUri());
+			if (request.getForm() != null) {
+				List<NameValuePair> pairs = new ArrayList<NameValuePair>();
+				for (Map.Entry<String, String> p : request.getForm().entrySet())
+					pairs.add(new BasicNameValuePair(p.getKey(), p.getValue()));
+
+				post.setEntity(new UrlEncodedFormEntity(pairs));
+			}
+			httpRequest = post;
+		} else if (TransportRequest.METHOD_GET.equals(request.getMethod())) {
+			httpRequest = new HttpGet(request.getUri());
+		} else {
+			throw new IOException("Unsupported method " + request.getMethod());
+		}
+
+		for (Map.Entry<String, String> h : request.getHeaders().entrySet())
+			httpRequest.addHeader(h.getKey(), h.getValue());
+		return httpRequest;
+	}
+
+	static class Response implements TransportResponse
+	{
+		private final HttpResponse response;
+
+		Response(HttpResponse response) {
+			this.response = response;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return response.getStatusLine().getStatusCode();
+		}
+
+		@Override
+		public String getHeader(String name)
+		{
+			Header header = response.getFirstHeader(name);
+			return header != null ? header.getValue() : null;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException
+		{
+			HttpEntity entity = response.getEntity();
+			return entity != null ? entity.getContent() : new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public Charset getCharset()
+		{
+			HttpEntity entity = response.getEntity();
+			ContentType contentType = entity != null ? ContentType.get(entity) : null;
+			return contentType != null && contentType.getCharset() != null ? contentType.getCharset() : Consts.UTF_8;
+		}
+	}
+
+	/**
+	 * Response of blocking request. Closing it before content has been read
+	 * to the end drops the connection instead of returning it to the pool.
+	 */
+	static class OpenResponse extends Response implements StreamingResponse
+	{
+		private final CloseableHttpResponse response;
+
+		OpenResponse(CloseableHttpResponse response) {
+			super(response);
+			this.response = response;
+		}
+
+		@Override
+		public void close() throws IOException {
+			response.close();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.sequencing.oauth.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Non-blocking counterpart of {@link HttpConnectionPool}. A small, fixed number
+ * of I/O dispatcher threads serves all in-flight requests. Replies are handed
+ * over to a separate pool of callback threads, so that parsing them and work
+ * chained to them does not hold up other exchanges.
+ */
+public class AsyncHttpConnectionPool implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(AsyncHttpConnectionPool.class);
+
+	private final PoolingNHttpClientConnectionManager connectionManager;
+	private final CloseableHttpAsyncClient httpClient;
+	private final ScheduledExecutorService evictor;
+	private final ThreadPoolExecutor callbackExecutor;
+
+	public AsyncHttpConnectionPool(AuthenticationParameters parameters)
+	{
+		IOReactorConfig reactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(parameters.getIoThreads())
+				.setConnectTimeout(Math.max(parameters.getConnectTimeout(), 0))
+				.setSoTimeout(Math.max(parameters.getSocketTimeout(), 0))
+				.build();
+
+		try {
+			connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig),
+					RegistryBuilder.<SchemeIOSessionStrategy>create()
+							.register("http", NoopIOSessionStrategy.INSTANCE)
+							.register("https", new SSLIOSessionStrategy(SharedSslContext.get(),
+									SSLIOSessionStrategy.getDefaultHostnameVerifier()))
+							.build());
+		} catch (IOReactorException e) {
+			throw new IllegalStateException("Unable to start HTTP I/O reactor", e);
+		}
+		connectionManager.setMaxTotal(parameters.getMaxConnectionsTotal());
+		connectionManager.setDefaultMaxPerRoute(parameters.getMaxConnectionsPerRoute());
+
+		httpClient = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager)
+				.setKeepAliveStrategy(new HttpConnectionPool.KeepAliveStrategy(parameters.getKeepAlive()))
+				.build();
+		httpClient.start();
+
+		final long idleTimeout = parameters.getIdleConnectionTimeout();
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "sequencing-async-connection-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				connectionManager.closeExpiredConnections();
+				connectionManager.closeIdleConnections(idleTimeout, TimeUnit.SECONDS);
+			}
+		}, idleTimeout, idleTimeout, TimeUnit.SECONDS);
+
+		int callbackThreads = Math.max(Runtime.getRuntime().availableProcessors(), parameters.getIoThreads());
+		callbackExecutor = new ThreadPoolExecutor(callbackThreads, callbackThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "sequencing-async-callback-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		callbackExecutor.allowCoreThreadTimeOut(true);
+
+		log.debug("Async HTTP connection pool created with {} I/O threads", parameters.getIoThreads());
+	}
+
+	/**
+	 * Returns started asynchronous HTTP client backed by this pool
+	 */
+	public CloseableHttpAsyncClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Returns executor replies are handled on, instead of I/O dispatcher threads
+	 */
+	public Executor getCallbackExecutor() {
+		return callbackExecutor;
+	}
+
+	/**
+	 * Opens connections to host of given URI by sending HEAD requests to its
+	 * root at once. Pool keeps connections they went over for the requests
+	 * to come, as long as server keeps them alive.
+	 * @return number of requests that have got a reply
+	 */
+	public int preconnect(URI uri, int count) throws IOException
+	{
+		URI root = uri.resolve("/");
+		List<Future<HttpResponse>> exchanges = new ArrayList<Future<HttpResponse>>();
+		for (int i = 0; i < count; i++)
+			exchanges.add(httpClient.execute(new HttpHead(root), null));
+
+		int completed = 0;
+		IOException failure = null;
+		for (Future<HttpResponse> exchange : exchanges) {
+			try {
+				exchange.get();
+				completed++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while opening connections to " + root);
+			} catch (ExecutionException e) {
+				failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+						: new IOException("Unable to connect to " + root, e.getCause());
+			}
+		}
+		if (completed == 0 && failure != null)
+			throw failure;
+		return completed;
+	}
+
+	/**
+	 * Returns statistics of the pool as a whole
+	 */
+	public PoolStats getTotalStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Stops I/O reactor and closes all pooled connections
+	 */
+	@Override
+	public void close() throws IOException {
+		evictor.shutdownNow();
+		httpClient.close();
+		callbackExecutor.shutdown();
+	}
+}
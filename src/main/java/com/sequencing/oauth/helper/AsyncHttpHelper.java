@@ -0,0 +1,332 @@
+package com.sequencing.oauth.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.stream.MalformedJsonException;
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.core.Token;
+import com.sequencing.oauth.exception.CircuitBreakerOpenException;
+import com.sequencing.oauth.exception.HttpStatusException;
+import com.sequencing.oauth.metrics.HttpExchangeTrace;
+import com.sequencing.oauth.metrics.Metrics;
+import com.sequencing.oauth.metrics.Tracing;
+
+/**
+ * Helper for non-blocking HTTP request processing routines
+ */
+public class AsyncHttpHelper
+{
+	private static final Logger log = LoggerFactory.getLogger(AsyncHttpHelper.class);
+
+	/**
+	 * Connection pool shared by all asynchronous requests
+	 */
+	private static volatile AsyncHttpConnectionPool connectionPool;
+
+	/**
+	 * Whether {@link #configure} has been called, there is no pool to tell
+	 * by when transport is not Apache HttpClient
+	 */
+	private static volatile boolean configured;
+
+	/**
+	 * Creates shared HTTP transport and, when it is Apache HttpClient, shared asynchronous
+	 * connection pool from given configuration. Pool is created only once, subsequent
+	 * calls have no effect until {@link #shutdown()} is called.
+	 * @param parameters configuration with connection pool settings
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (configured)
+			return;
+
+		synchronized (AsyncHttpHelper.class) {
+			if (configured)
+				return;
+
+			HttpTransports.configure(parameters);
+			ResiliencePolicy.configure(parameters);
+			if (HttpTransports.isApache() && connectionPool == null)
+				connectionPool = new AsyncHttpConnectionPool(parameters);
+			configured = true;
+		}
+	}
+
+	/**
+	 * Returns whether helper has been configured
+	 */
+	public static boolean isConfigured() {
+		return configured;
+	}
+
+	/**
+	 * Returns whether shared asynchronous connection pool has been created
+	 */
+	public static boolean hasConnectionPool() {
+		return connectionPool != null;
+	}
+
+	/**
+	 * Returns shared asynchronous connection pool, creating it with default
+	 * settings if it has not been configured yet
+	 */
+	public static AsyncHttpConnectionPool getConnectionPool()
+	{
+		AsyncHttpConnectionPool pool = connectionPool;
+		if (pool == null) {
+			synchronized (AsyncHttpHelper.class) {
+				if (connectionPool == null)
+					connectionPool = new AsyncHttpConnectionPool(new AuthenticationParameters.ConfigurationBuilder().build());
+				pool = connectionPool;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Stops shared asynchronous connection pool
+	 */
+	public static synchronized void shutdown()
+	{
+		configured = false;
+		if (connectionPool == null)
+			return;
+
+		try {
+			connectionPool.close();
+		} catch (IOException e) {
+			log.debug("Error closing async HTTP connection pool", e);
+		}
+		connectionPool = null;
+	}
+
+	/**
+	 * Adds oAuth authentication header and executes GET request without blocking
+	 * @param uri GET request URL
+	 * @param token object with access and refresh token values present
+	 * @return future of server reply
+	 */
+	public static CompletableFuture<String> doOauthSecureGet(String uri, Token token)
+	{
+		return doOauthSecureGet(uri, token, StringParser.INSTANCE);
+	}
+
+	/**
+	 * Adds oAuth authentication header and executes GET request without blocking
+	 * @param uri GET request URL
+	 * @param token object with access and refresh token values present
+	 * @param parser converts server reply straight from response content
+	 * @return future of parsed server reply
+	 */
+	public static <T> CompletableFuture<T> doOauthSecureGet(String uri, Token token, ResponseParser<T> parser)
+	{
+		TransportRequest get = new TransportRequest(TransportRequest.METHOD_GET, URI.create(uri));
+		get.addHeader("Authorization", String.format("Bearer %s", token.getAccessToken()));
+
+		return execute(get, parsing(get, parser));
+	}
+
+	/**
+	 * Adds basic authentication header and executes POST request without
+	 * blocking. Request may be sent again if it fails, so it is not to be
+	 * used for authorization code exchange.
+	 * @param uri request URL
+	 * @param authParams configuration parameters needed for authentication
+	 * @param params POST request parameters
+	 * @param parser converts server reply straight from response content
+	 * @return future of parsed server reply
+	 */
+	public static <T> CompletableFuture<T> doBasicSecurePost(String uri, AuthenticationParameters authParams,
+			Map<String, String> params, ResponseParser<T> parser)
+	{
+		TransportRequest post = new TransportRequest(TransportRequest.METHOD_POST, URI.create(uri));
+		post.setForm(params);
+		for (Map.Entry<String, String> h : HttpHelper.getBasicAuthenticationHeader(
+				authParams.getClientId(), authParams.getClientSecret()).entrySet())
+			post.addHeader(h.getKey(), h.getValue());
+
+		return execute(post, parsing(post, parser));
+	}
+
+	/**
+	 * Returns handler passing content of 200 reply on to given parser
+	 */
+	private static <T> TransportResponseHandler<T> parsing(final TransportRequest request, final ResponseParser<T> parser)
+	{
+		return new TransportResponseHandler<T>() {
+			public T handle(TransportResponse response) throws IOException {
+				int statusCode = response.getStatusCode();
+				if (statusCode != HttpStatus.SC_OK)
+					throw new HttpStatusException(request.getUri().toString(), statusCode,
+							response.getHeader(HttpHeaders.RETRY_AFTER));
+
+				return parser.parse(response.getContent(), response.getCharset());
+			}
+		};
+	}
+
+	/**
+	 * Adds oAuth authentication header and executes conditional GET request
+	 * without blocking. Server replies 304 if content has not changed since
+	 * it was returned with given validators.
+	 * @param uri GET request URL
+	 * @param token object with access and refresh token values present
+	 * @param etag ETag of previously returned content, may be null
+	 * @param lastModified Last-Modified of previously returned content, may be null
+	 * @return future of server reply
+	 */
+	public static CompletableFuture<CacheableResponse> doOauthSecureConditionalGet(String uri, Token token,
+			String etag, String lastModified)
+	{
+		final TransportRequest get = new TransportRequest(TransportRequest.METHOD_GET, URI.create(uri));
+		get.addHeader("Authorization", String.format("Bearer %s", token.getAccessToken()));
+		if (etag != null)
+			get.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+		if (lastModified != null)
+			get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+
+		return execute(get, new TransportResponseHandler<CacheableResponse>() {
+			public CacheableResponse handle(TransportResponse response) throws IOException {
+				int statusCode = response.getStatusCode();
+				if (statusCode == HttpStatus.SC_NOT_MODIFIED)
+					return CacheableResponse.notModified();
+				if (statusCode != HttpStatus.SC_OK)
+					throw new HttpStatusException(get.getUri().toString(), statusCode,
+							response.getHeader(HttpHeaders.RETRY_AFTER));
+
+				return new CacheableResponse(toByteArray(response.getContent()), response.getCharset(),
+						response.getHeader(HttpHeaders.ETAG), response.getHeader(HttpHeaders.LAST_MODIFIED));
+			}
+		});
+	}
+
+	/**
+	 * Basic method for executing HTTP request. Transient failures are retried
+	 * as ResiliencePolicy decides, requests to failing endpoint fail fast.
+	 * Cancelling returned future aborts the underlying exchange. Compressed
+	 * reply is inflated while handler reads it.
+	 * @param request request object
+	 * @param handler converts server reply
+	 * @return future of converted server reply
+	 */
+	private static <T> CompletableFuture<T> execute(TransportRequest request, TransportResponseHandler<T> handler)
+	{
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		DecompressingResponseHandler.acceptCompressed(request);
+		attempt(request, handler, result, 1);
+		return result;
+	}
+
+	/**
+	 * Makes an attempt of request, scheduling next one if it fails and may be retried
+	 */
+	private static <T> void attempt(final TransportRequest request, final TransportResponseHandler<T> handler,
+			final CompletableFuture<T> result, final int attempt)
+	{
+		final ResiliencePolicy policy = ResiliencePolicy.getInstance();
+		final CircuitBreaker breaker = policy.getCircuitBreaker(request.getUri());
+		if (breaker.tryAcquire() == false) {
+			result.completeExceptionally(new CircuitBreakerOpenException(
+					request.getUri().getHost() + request.getUri().getPath()));
+			return;
+		}
+
+		final StatusRecorder<T> recorder = new StatusRecorder<T>(handler);
+		final CompletableFuture<T> exchange = executeOnce(request, recorder);
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				if (result.isCancelled())
+					exchange.cancel(false);
+			}
+		});
+
+		exchange.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				if (e == null) {
+					breaker.onSuccess();
+					result.complete(value);
+					return;
+				}
+				if (exchange.isCancelled()) {
+					result.cancel(false);
+					return;
+				}
+
+				Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				if (recorder.getStatusCode() != -1 && cause instanceof HttpStatusException == false
+						&& (cause instanceof IOException == false || cause instanceof MalformedJsonException)) {
+					// Server did reply, its content could not be parsed
+					breaker.onSuccess();
+					result.completeExceptionally(cause);
+					return;
+				}
+
+				policy.onFailure(breaker, cause);
+				long delay = policy.getRetryDelay(attempt, cause);
+				if (delay < 0 || result.isDone()) {
+					result.completeExceptionally(cause);
+					return;
+				}
+
+				log.debug("Retrying request to " + request.getUri() + " in " + delay + "ms after " + cause);
+				policy.schedule(new Runnable() {
+					public void run() {
+						if (result.isDone() == false)
+							attempt(request, handler, result, attempt + 1);
+					}
+				}, delay);
+			}
+		});
+	}
+
+	/**
+	 * Executes HTTP request once
+	 */
+	private static <T> CompletableFuture<T> executeOnce(final TransportRequest request, final StatusRecorder<T> handler)
+	{
+		final String endpoint = Metrics.getEndpoint(request.getUri().getPath());
+		final HttpExchangeTrace trace = Tracing.getHook().beginHttpExchange();
+		final long start = System.nanoTime();
+
+		CompletableFuture<T> exchange = HttpTransports.getInstance().executeAsync(request,
+				new DecompressingResponseHandler<T>(endpoint, handler, trace));
+		exchange.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				if (e != null && handler.getStatusCode() == -1)
+					log.debug("Error executing async HTTP request to " + request.getUri(), e);
+				Metrics.getListener().onHttpExchange(endpoint, handler.getStatusCode(), System.nanoTime() - start);
+				// Connections are opened by I/O threads, connect time is not known
+				if (trace != null)
+					HttpHelper.endTrace(trace, request, endpoint, handler.getStatusCode(), start,
+							handler.getHeadersTime(), 0);
+			}
+		});
+		return exchange;
+	}
+
+	private static byte[] toByteArray(InputStream content) throws IOException
+	{
+		try {
+			ByteArrayOutputStream result = new ByteArrayOutputStream(4096);
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = content.read(buffer)) != -1)
+				result.write(buffer, 0, read);
+			return result.toByteArray();
+		} finally {
+			content.close();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.sequencing.oauth.helper;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reply to a conditional GET request along with its cache validators
+ */
+public class CacheableResponse
+{
+	private static final CacheableResponse NOT_MODIFIED = new CacheableResponse(null, null, null, null);
+
+	private final byte[] content;
+	private final Charset charset;
+	private final String etag;
+	private final String lastModified;
+
+	public CacheableResponse(byte[] content, Charset charset, String etag, String lastModified) {
+		this.content = content;
+		this.charset = charset;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns reply meaning previously returned content is still up to date
+	 */
+	public static CacheableResponse notModified() {
+		return NOT_MODIFIED;
+	}
+
+	public boolean isNotModified() {
+		return content == null;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+}
@@ -0,0 +1,76 @@
+package com.sequencing.oauth.helper;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker of a single endpoint. After a number of consecutive failures
+ * the circuit opens and requests fail fast. Once open duration elapses a single
+ * trial request is let through, which either closes the circuit or opens it again.
+ */
+public class CircuitBreaker
+{
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int failureThreshold;
+	private final long openDuration;
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicLong openedAt = new AtomicLong();
+	private volatile State state = State.CLOSED;
+
+	public CircuitBreaker(int failureThreshold, long openDuration) {
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Returns whether request may be executed. Every permitted request
+	 * must be followed by {@link #onSuccess()} or {@link #onFailure()}.
+	 */
+	public boolean tryAcquire()
+	{
+		if (failureThreshold <= 0)
+			return true;
+
+		switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				long opened = openedAt.get();
+				if (System.currentTimeMillis() - opened < openDuration)
+					return false;
+				// Only one caller wins the trial request
+				if (openedAt.compareAndSet(opened, Long.MAX_VALUE) == false)
+					return false;
+				state = State.HALF_OPEN;
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	public void onSuccess()
+	{
+		if (failureThreshold <= 0)
+			return;
+
+		failures.set(0);
+		if (state != State.CLOSED)
+			state = State.CLOSED;
+	}
+
+	public void onFailure()
+	{
+		if (failureThreshold <= 0)
+			return;
+
+		if (state == State.HALF_OPEN || failures.incrementAndGet() >= failureThreshold) {
+			openedAt.set(System.currentTimeMillis());
+			state = State.OPEN;
+		}
+	}
+
+	public State getState() {
+		return state;
+	}
+}
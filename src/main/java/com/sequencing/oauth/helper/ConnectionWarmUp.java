@@ -0,0 +1,194 @@
+package com.sequencing.oauth.helper;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Gets HTTP transport ready for first requests after startup. Token and API
+ * hosts are resolved and connections to them opened in the background, so that
+ * first logins and file listings do not pay for DNS lookups and TCP and TLS
+ * handshakes. Enabled by warmUpConnections setting, HttpHelper starts it
+ * once configured.
+ */
+public class ConnectionWarmUp implements Runnable
+{
+	private static final Logger log = LoggerFactory.getLogger(ConnectionWarmUp.class);
+
+	private static volatile ConnectionWarmUp instance;
+
+	private final AuthenticationParameters parameters;
+	private final List<URI> hosts = new ArrayList<URI>();
+	private final int connections;
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final Thread thread;
+
+	private final AtomicInteger resolvedHosts = new AtomicInteger();
+	private final AtomicInteger openedConnections = new AtomicInteger();
+	private final AtomicInteger failedHosts = new AtomicInteger();
+	private volatile long duration = -1;
+
+	ConnectionWarmUp(AuthenticationParameters parameters)
+	{
+		this.parameters = parameters;
+		addHost(parameters.getOAuthTokenUri());
+		addHost(parameters.getApiUri());
+		connections = Math.min(parameters.getWarmUpConnections(), parameters.getMaxConnectionsPerRoute());
+
+		thread = new Thread(this, "sequencing-connection-warm-up");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts warm-up in the background if given configuration asks for it.
+	 * Warm-up is done only once, subsequent calls have no effect until
+	 * {@link #shutdown()} is called.
+	 */
+	public static void start(AuthenticationParameters parameters)
+	{
+		if (instance != null || parameters.getWarmUpConnections() <= 0)
+			return;
+
+		synchronized (ConnectionWarmUp.class) {
+			if (instance == null) {
+				instance = new ConnectionWarmUp(parameters);
+				instance.thread.start();
+			}
+		}
+	}
+
+	/**
+	 * Returns warm-up started last, or null if there has been none
+	 */
+	public static ConnectionWarmUp getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns whether first requests may be sent without paying for connection
+	 * setup, which is when warm-up has finished or none has been asked for
+	 */
+	public static boolean isReady()
+	{
+		ConnectionWarmUp warmUp = instance;
+		return warmUp == null || warmUp.isDone();
+	}
+
+	/**
+	 * Waits until warm-up, if any, has finished
+	 * @return whether it has finished in given time
+	 */
+	public static boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		ConnectionWarmUp warmUp = instance;
+		return warmUp == null || warmUp.done.await(timeout, unit);
+	}
+
+	/**
+	 * Stops warm-up if it is still running and lets the next {@link #start}
+	 * call warm up again
+	 */
+	public static synchronized void shutdown()
+	{
+		if (instance == null)
+			return;
+
+		instance.thread.interrupt();
+		instance = null;
+	}
+
+	@Override
+	public void run()
+	{
+		long start = System.nanoTime();
+		try {
+			// Non-blocking pool, which file listings go through, is to be warmed up as well
+			AsyncHttpHelper.configure(parameters);
+			for (URI host : hosts) {
+				if (Thread.currentThread().isInterrupted())
+					break;
+				warmUp(host);
+			}
+		} finally {
+			duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			done.countDown();
+			log.debug("Connection warm-up finished in {} ms: {} hosts resolved, {} connections opened, {} hosts failed",
+					duration, resolvedHosts.get(), openedConnections.get(), failedHosts.get());
+		}
+	}
+
+	private void warmUp(URI host)
+	{
+		try {
+			// Result stays in JVM address cache for the requests to come
+			InetAddress.getAllByName(host.getHost());
+			resolvedHosts.incrementAndGet();
+
+			openedConnections.addAndGet(HttpTransports.getInstance().preconnect(host, connections));
+		} catch (Exception e) {
+			failedHosts.incrementAndGet();
+			log.warn("Unable to warm up connections to " + host, e);
+		}
+	}
+
+	/**
+	 * Adds host of given URI unless it is already there
+	 */
+	private void addHost(String uri)
+	{
+		if (uri == null)
+			return;
+
+		URI parsed = URI.create(uri);
+		if (parsed.getHost() == null)
+			return;
+
+		URI host = URI.create(parsed.getScheme() + "://" + parsed.getRawAuthority() + "/");
+		if (hosts.contains(host) == false)
+			hosts.add(host);
+	}
+
+	/**
+	 * Returns whether warm-up has finished, successfully or not
+	 */
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * Returns number of hosts resolved so far
+	 */
+	public int getResolvedHosts() {
+		return resolvedHosts.get();
+	}
+
+	/**
+	 * Returns number of connections opened so far
+	 */
+	public int getOpenedConnections() {
+		return openedConnections.get();
+	}
+
+	/**
+	 * Returns number of hosts that could not be resolved or connected to
+	 */
+	public int getFailedHosts() {
+		return failedHosts.get();
+	}
+
+	/**
+	 * Returns how long warm-up took in milliseconds, or -1 if it is still running
+	 */
+	public long getDuration() {
+		return duration;
+	}
+}
@@ -0,0 +1,254 @@
+package com.sequencing.oauth.helper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.HttpHeaders;
+
+import com.sequencing.oauth.metrics.HttpExchangeTrace;
+import com.sequencing.oauth.metrics.Metrics;
+
+/**
+ * Inflates compressed response content on the fly while handler reads it, so
+ * that parsers consume decoded stream without whole reply being buffered.
+ * Reports bytes received and bytes decoded along with time spent reading,
+ * traced exchanges get time spent waiting for content apart from the rest.
+ */
+class DecompressingResponseHandler<T> implements TransportResponseHandler<T>
+{
+	/**
+	 * Encodings understood by the handler
+	 */
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String endpoint;
+	private final TransportResponseHandler<T> handler;
+	private final HttpExchangeTrace trace;
+
+	DecompressingResponseHandler(String endpoint, TransportResponseHandler<T> handler) {
+		this(endpoint, handler, null);
+	}
+
+	/**
+	 * @param trace trace of the exchange or null if it is not traced
+	 */
+	DecompressingResponseHandler(String endpoint, TransportResponseHandler<T> handler, HttpExchangeTrace trace) {
+		this.endpoint = endpoint;
+		this.handler = handler;
+		this.trace = trace;
+	}
+
+	/**
+	 * Asks server to compress reply to given request
+	 */
+	static void acceptCompressed(TransportRequest request) {
+		request.addHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+	}
+
+	@Override
+	public T handle(TransportResponse response) throws IOException
+	{
+		long start = System.nanoTime();
+		DecodedResponse decoded = new DecodedResponse(response, trace != null);
+		try {
+			return handler.handle(decoded);
+		} finally {
+			decoded.report(endpoint, start);
+			if (trace != null)
+				decoded.trace(trace, start);
+		}
+	}
+
+	/**
+	 * Returns stream decoding content of given encoding
+	 */
+	static InputStream decode(InputStream content, String encoding) throws IOException
+	{
+		if (encoding == null || "identity".equalsIgnoreCase(encoding))
+			return content;
+		if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding))
+			return new GZIPInputStream(content, BUFFER_SIZE);
+		if ("deflate".equalsIgnoreCase(encoding))
+			return inflate(content);
+
+		throw new IOException("Unsupported content encoding " + encoding);
+	}
+
+	/**
+	 * Inflates deflate content, which servers send both with and without
+	 * zlib header
+	 */
+	private static InputStream inflate(InputStream content) throws IOException
+	{
+		PushbackInputStream in = new PushbackInputStream(content, 2);
+		byte[] header = new byte[2];
+		int read = 0;
+		while (read < header.length) {
+			int n = in.read(header, read, header.length - read);
+			if (n < 0)
+				break;
+			read += n;
+		}
+		in.unread(header, 0, read);
+
+		boolean zlib = read == 2 && (header[0] & 0x0F) == 8
+				&& ((header[0] & 0xFF) << 8 | (header[1] & 0xFF)) % 31 == 0;
+		final Inflater inflater = new Inflater(zlib == false);
+		return new InflaterInputStream(in, inflater, BUFFER_SIZE) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					inflater.end();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Response with decoded content
+	 */
+	static class DecodedResponse implements TransportResponse
+	{
+		private final TransportResponse response;
+		private final boolean timed;
+		private String encoding;
+		private CountingInputStream wire;
+		private CountingInputStream content;
+
+		/**
+		 * @param timed whether time spent waiting for content is measured
+		 */
+		DecodedResponse(TransportResponse response, boolean timed) {
+			this.response = response;
+			this.timed = timed;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return response.getStatusCode();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return response.getHeader(name);
+		}
+
+		@Override
+		public InputStream getContent() throws IOException
+		{
+			if (content == null) {
+				encoding = response.getHeader(HttpHeaders.CONTENT_ENCODING);
+				wire = new CountingInputStream(response.getContent(), timed);
+				content = new CountingInputStream(decode(wire, encoding), false);
+			}
+			return content;
+		}
+
+		@Override
+		public Charset getCharset() {
+			return response.getCharset();
+		}
+
+		/**
+		 * Reads what follows decoded content on the wire, e.g. end of chunked
+		 * encoding after gzip trailer, once decoded content has been read to the end
+		 */
+		void finish() throws IOException
+		{
+			if (content != null && content.eof) {
+				byte[] buffer = new byte[512];
+				while (wire.read(buffer) != -1);
+			}
+		}
+
+		/**
+		 * Reports content read so far, if any
+		 * @param start when reading started, in nanoseconds
+		 */
+		void report(String endpoint, long start)
+		{
+			if (content != null)
+				Metrics.getListener().onResponseContent(endpoint, encoding, wire.count, content.count,
+						System.nanoTime() - start);
+		}
+
+		/**
+		 * Hands content read so far, if any, over to exchange trace
+		 * @param start when reading started, in nanoseconds
+		 */
+		void trace(HttpExchangeTrace trace, long start)
+		{
+			if (content != null) {
+				long elapsed = System.nanoTime() - start;
+				trace.setContent(encoding, wire.count, content.count, wire.readNanos, elapsed - wire.readNanos);
+			}
+		}
+	}
+
+	/**
+	 * Counts bytes read through it and, if asked to, time spent in reads
+	 */
+	static class CountingInputStream extends FilterInputStream
+	{
+		private final boolean timed;
+		long count;
+		long readNanos;
+		boolean eof;
+
+		CountingInputStream(InputStream in, boolean timed) {
+			super(in);
+			this.timed = timed;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			long start = timed ? System.nanoTime() : 0;
+			int b = super.read();
+			if (timed)
+				readNanos += System.nanoTime() - start;
+			if (b >= 0)
+				count++;
+			else
+				eof = true;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			long start = timed ? System.nanoTime() : 0;
+			int n = super.read(b, off, len);
+			if (timed)
+				readNanos += System.nanoTime() - start;
+			if (n > 0)
+				count += n;
+			else if (n < 0)
+				eof = true;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.sequencing.oauth.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sequencing.oauth.core.FileMetadata;
+
+/**
+ * Parses DataSourceList reply in a single streaming pass, without
+ * building intermediate String or JSON tree
+ */
+public class FileMetadataParser implements ResponseParser<List<FileMetadata>>
+{
+	public static final FileMetadataParser INSTANCE = new FileMetadataParser();
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Override
+	public List<FileMetadata> parse(InputStream content, Charset charset) throws IOException
+	{
+		JsonReader reader = new JsonReader(new InputStreamReader(content, charset));
+		try {
+			List<FileMetadata> result = new ArrayList<FileMetadata>();
+			reader.beginArray();
+			while (reader.hasNext())
+				result.add(readFileMetadata(reader));
+			reader.endArray();
+			return result;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parses DataSourceList reply already read as text
+	 * @return file metadata, null if text is null
+	 */
+	public static List<FileMetadata> parse(String json)
+	{
+		if (json == null)
+			return null;
+
+		try {
+			return INSTANCE.parse(new ByteArrayInputStream(json.getBytes(UTF_8)), UTF_8);
+		} catch (IOException e) {
+			throw new JsonParseException(e);
+		}
+	}
+
+	/**
+	 * Reads single array element
+	 */
+	public static FileMetadata readFileMetadata(JsonReader reader) throws IOException
+	{
+		FileMetadata file = new FileMetadata();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String field = reader.nextName();
+			if ("Id".equals(field))
+				file.setId(readString(reader));
+			else if ("Name".equals(field))
+				file.setName(readString(reader));
+			else if ("Ext".equals(field))
+				file.setExt(readString(reader));
+			else if ("FileCategory".equals(field))
+				file.setFileCategory(readString(reader));
+			else if ("FileSubType".equals(field))
+				file.setFileSubType(readString(reader));
+			else if ("FileType".equals(field))
+				file.setFileType(readString(reader));
+			else if ("FriendlyDesc1".equals(field))
+				file.setFriendlyDesc1(readString(reader));
+			else if ("FriendlyDesc2".equals(field))
+				file.setFriendlyDesc2(readString(reader));
+			else if ("Population".equals(field))
+				file.setPopulation(readString(reader));
+			else if ("RefVersion".equals(field))
+				file.setRefVersion(readString(reader));
+			else if ("Sex".equals(field))
+				file.setSex(readString(reader));
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		return file;
+	}
+
+	/**
+	 * Reads scalar value as string, null stays null
+	 */
+	static String readString(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL) {
+			reader.nextNull();
+			return null;
+		}
+		if (token == JsonToken.BOOLEAN)
+			return String.valueOf(reader.nextBoolean());
+		if (token == JsonToken.STRING || token == JsonToken.NUMBER)
+			return reader.nextString();
+
+		reader.skipValue();
+		return null;
+	}
+}
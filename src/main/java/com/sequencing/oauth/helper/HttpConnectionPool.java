@@ -0,0 +1,174 @@
+package com.sequencing.oauth.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Long-lived pool of HTTP connections shared by all requests to sequencing.com
+ * backend. Connections are kept alive and reused between requests, idle and
+ * expired ones are evicted by a background thread. TLS sessions are resumed
+ * from {@link SharedSslContext}.
+ */
+public class HttpConnectionPool implements Closeable
+{
+	private static final Logger log = LoggerFactory.getLogger(HttpConnectionPool.class);
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final int connectTimeout;
+	private final long keepAliveMillis;
+
+	public HttpConnectionPool(AuthenticationParameters parameters)
+	{
+		connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", new TimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+				.register("https", new TimedSocketFactory(new SSLConnectionSocketFactory(SharedSslContext.get())))
+				.build());
+		connectionManager.setMaxTotal(parameters.getMaxConnectionsTotal());
+		connectionManager.setDefaultMaxPerRoute(parameters.getMaxConnectionsPerRoute());
+
+		connectTimeout = parameters.getConnectTimeout();
+		keepAliveMillis = TimeUnit.SECONDS.toMillis(parameters.getKeepAlive());
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(parameters.getConnectTimeout())
+				.setSocketTimeout(parameters.getSocketTimeout())
+				.build();
+
+		httpClient = HttpClientBuilder.create()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(new KeepAliveStrategy(parameters.getKeepAlive()))
+				.evictExpiredConnections()
+				.evictIdleConnections(parameters.getIdleConnectionTimeout(), TimeUnit.SECONDS)
+				// Retries are up to ResiliencePolicy
+				.disableAutomaticRetries()
+				// Replies are inflated by DecompressingResponseHandler
+				.disableContentCompression()
+				.build();
+
+		log.debug("HTTP connection pool created: max total {}, max per route {}",
+				parameters.getMaxConnectionsTotal(), parameters.getMaxConnectionsPerRoute());
+	}
+
+	/**
+	 * Returns HTTP client backed by this pool
+	 */
+	public CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Returns statistics of the pool as a whole: leased, pending,
+	 * available connections and the limit
+	 */
+	public PoolStats getTotalStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Opens connections to host of given URI and leaves them idle in the pool,
+	 * so that requests find them ready. Connections already idle in the pool
+	 * count towards the number requested.
+	 * @param uri URI of the host, path is ignored
+	 * @param count number of connections wanted, at most per route limit
+	 * @return number of connections opened
+	 * @throws IOException if connection could not be opened
+	 */
+	public int preconnect(URI uri, int count) throws IOException
+	{
+		HttpHost host = URIUtils.extractHost(uri);
+		if (host == null)
+			throw new IOException("No host in URI " + uri);
+		HttpHost target = new HttpHost(host.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(host),
+				host.getSchemeName());
+		// Same route as DefaultRoutePlanner makes for requests without proxy
+		HttpRoute route = new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+
+		List<HttpClientConnection> leased = new ArrayList<HttpClientConnection>();
+		HttpClientContext context = HttpClientContext.create();
+		int opened = 0;
+		try {
+			// Connections are all held until the end, or the pool hands out the same one again
+			for (int i = 0; i < count; i++) {
+				HttpClientConnection connection;
+				try {
+					connection = connectionManager.requestConnection(route, null)
+							.get(Math.max(connectTimeout, 0), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while opening connections to " + target);
+				} catch (ExecutionException e) {
+					throw new IOException("Unable to lease connection to " + target, e.getCause());
+				}
+				leased.add(connection);
+
+				if (connection.isOpen() == false) {
+					connectionManager.connect(connection, route, Math.max(connectTimeout, 0), context);
+					connectionManager.routeComplete(connection, route, context);
+					opened++;
+				}
+			}
+		} finally {
+			for (HttpClientConnection connection : leased)
+				connectionManager.releaseConnection(connection, null, keepAliveMillis, TimeUnit.MILLISECONDS);
+		}
+		return opened;
+	}
+
+	/**
+	 * Closes all pooled connections and stops eviction thread
+	 */
+	@Override
+	public void close() throws IOException {
+		httpClient.close();
+	}
+
+	/**
+	 * Uses keep-alive period announced by server, falling back to configured one
+	 */
+	static class KeepAliveStrategy implements ConnectionKeepAliveStrategy
+	{
+		private final long defaultKeepAliveMillis;
+
+		KeepAliveStrategy(long defaultKeepAlive) {
+			this.defaultKeepAliveMillis = TimeUnit.SECONDS.toMillis(defaultKeepAlive);
+		}
+
+		@Override
+		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? duration : defaultKeepAliveMillis;
+		}
+	}
+}
@@ -1,29 +1,25 @@
 package com.sequencing.oauth.helper;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InterruptedIOException;
+import java.net.URI;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
+import org.apache.http.HttpHeaders;
 import org.apache.http.ParseException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.stream.MalformedJsonException;
 import com.sequencing.oauth.config.AuthenticationParameters;
 import com.sequencing.oauth.core.Token;
+import com.sequencing.oauth.exception.CircuitBreakerOpenException;
+import com.sequencing.oauth.exception.HttpStatusException;
+import com.sequencing.oauth.metrics.HttpExchangeTrace;
+import com.sequencing.oauth.metrics.Metrics;
+import com.sequencing.oauth.metrics.Tracing;
 
 /**
  * Helper for common HTTP request processing routines
@@ -32,6 +28,94 @@ public class HttpHelper
 {
 	private static final Logger log = LoggerFactory.getLogger(HttpHelper.class);
 
+	private static final String PARAM_GRANT_TYPE = "grant_type";
+	private static final String GRANT_AUTHORIZATION_CODE = "authorization_code";
+
+	/**
+	 * Connection pool shared by all requests
+	 */
+	private static volatile HttpConnectionPool connectionPool;
+
+	/**
+	 * Whether {@link #configure} has been called, there is no pool to tell
+	 * by when transport is not Apache HttpClient
+	 */
+	private static volatile boolean configured;
+
+	/**
+	 * Creates shared HTTP transport and, when it is Apache HttpClient, shared connection
+	 * pool from given configuration. Pool is created only once, subsequent calls have
+	 * no effect until {@link #shutdown()} is called. Connections are warmed up
+	 * if configuration asks for it, see {@link ConnectionWarmUp}.
+	 * @param parameters configuration with connection pool settings
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (configured)
+			return;
+
+		synchronized (HttpHelper.class) {
+			if (configured)
+				return;
+
+			HttpTransports.configure(parameters);
+			ResiliencePolicy.configure(parameters);
+			if (HttpTransports.isApache() && connectionPool == null)
+				connectionPool = new HttpConnectionPool(parameters);
+			ConnectionWarmUp.start(parameters);
+			configured = true;
+		}
+	}
+
+	/**
+	 * Returns whether helper has been configured
+	 */
+	public static boolean isConfigured() {
+		return configured;
+	}
+
+	/**
+	 * Returns whether shared connection pool has been created
+	 */
+	public static boolean hasConnectionPool() {
+		return connectionPool != null;
+	}
+
+	/**
+	 * Returns shared connection pool, creating it with default settings
+	 * if it has not been configured yet
+	 */
+	public static HttpConnectionPool getConnectionPool()
+	{
+		HttpConnectionPool pool = connectionPool;
+		if (pool == null) {
+			synchronized (HttpHelper.class) {
+				if (connectionPool == null)
+					connectionPool = new HttpConnectionPool(new AuthenticationParameters.ConfigurationBuilder().build());
+				pool = connectionPool;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Closes shared connection pool and all its connections
+	 */
+	public static synchronized void shutdown()
+	{
+		ConnectionWarmUp.shutdown();
+		configured = false;
+		if (connectionPool == null)
+			return;
+
+		try {
+			connectionPool.close();
+		} catch (IOException e) {
+			log.debug("Error closing HTTP connection pool", e);
+		}
+		connectionPool = null;
+	}
+
 	/**
 	 * Adds basic authentication headers and executes GET request
 	 * @param uri GET request URL
@@ -39,10 +123,44 @@ public class HttpHelper
 	 * @return String server reply
 	 */
 	public static String doOauthSecureGet(String uri, Token token)
+	{
+		return doOauthSecureGet(uri, token, StringParser.INSTANCE);
+	}
+
+	/**
+	 * Adds oAuth authentication header and executes GET request
+	 * @param uri GET request URL
+	 * @param token object with access and refresh token values present
+	 * @param parser converts server reply straight from response content
+	 * @return parsed server reply
+	 */
+	public static <T> T doOauthSecureGet(String uri, Token token, ResponseParser<T> parser)
 	{
 		Map<String, String> headers = new HashMap<String, String>();
         headers.put("Authorization", String.format("Bearer %s", token.getAccessToken()));
-		return doGet(uri, headers);
+		return doGet(uri, headers, parser);
+	}
+
+	/**
+	 * Adds oAuth authentication header and executes GET request, leaving
+	 * reply to be read as it arrives. Transient failures to get the reply
+	 * are retried same as for other requests.
+	 * @param uri GET request URL
+	 * @param token object with access and refresh token values present
+	 * @return response with content not read yet, to be closed by the caller
+	 * @throws IOException if server could not be reached
+	 * @throws HttpStatusException if server replied with status other than 200
+	 */
+	public static StreamingResponse openOauthSecureGet(String uri, Token token) throws IOException
+	{
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Authorization", String.format("Bearer %s", token.getAccessToken()));
+		return executeRequest(new TransportRequest(TransportRequest.METHOD_GET, URI.create(uri)), headers,
+				new Exchange<StreamingResponse>() {
+					public StreamingResponse execute(TransportRequest request) throws IOException {
+						return openOnce(request);
+					}
+				}, true);
 	}
 
 	/**
@@ -53,24 +171,39 @@ public class HttpHelper
 	 * @return String server reply
 	 */
 	public static String doBasicSecurePost(String uri, AuthenticationParameters authParams, Map<String, String> params)
+	{
+		return doBasicSecurePost(uri, authParams, params, StringParser.INSTANCE);
+	}
+
+	/**
+	 * Adds oAuth authentication headers headers executes POST request
+	 * @param uri request URL
+	 * @param authParams configuration parameters needed for authentication
+	 * @param params POST request parameters
+	 * @param parser converts server reply straight from response content
+	 * @return parsed server reply
+	 */
+	public static <T> T doBasicSecurePost(String uri, AuthenticationParameters authParams, Map<String, String> params,
+			ResponseParser<T> parser)
 	{
 		Map<String, String> headers = getBasicAuthenticationHeader(
 				authParams.getClientId(),
 				authParams.getClientSecret());
 		
-		return doPost(uri, headers, params);
+		return doPost(uri, headers, params, parser);
 	}
 
 	/**
 	 * Executes GET request
 	 * @param uri request URL
 	 * @param headers additional request headers
-	 * @return String server reply
+	 * @param parser converts server reply
+	 * @return parsed server reply
 	 */
-	private static String doGet(String uri, Map<String, String> headers)
+	private static <T> T doGet(String uri, Map<String, String> headers, ResponseParser<T> parser)
 	{
 		try {
-			return executeRequest(new HttpGet(uri), headers);
+			return executeRequest(new TransportRequest(TransportRequest.METHOD_GET, URI.create(uri)), headers, parser, true);
 		}
 		catch (IOException e) {
 			log.debug("Error executing HTTP GET request to " + uri, e);
@@ -83,27 +216,150 @@ public class HttpHelper
 	}
 
 	/**
-	 * Basic method for executing HTTP request
+	 * Basic method for executing HTTP request. Transient failures are retried
+	 * as ResiliencePolicy decides, requests to failing endpoint fail fast.
+	 * Compressed reply is inflated while parser reads it.
 	 * @param request request object
 	 * @param headers additional request headers
-	 * @return String server reply
+	 * @param parser converts server reply
+	 * @param retry whether request may be sent again, false for ones server
+	 * must not get twice
+	 * @return parsed server reply
 	 * @throws IOException
 	 */
-	private static String executeRequest(HttpRequestBase request, Map<String, String> headers) throws IOException
+	private static <T> T executeRequest(TransportRequest request, Map<String, String> headers,
+			final ResponseParser<T> parser, boolean retry) throws IOException
+	{
+		return executeRequest(request, headers, new Exchange<T>() {
+			public T execute(TransportRequest request) throws IOException {
+				return executeOnce(request, parser);
+			}
+		}, retry);
+	}
+
+	/**
+	 * Makes attempts of given exchange until it succeeds or ResiliencePolicy
+	 * gives up on it. Reply that has been received but could not be parsed is
+	 * neither retried nor counted as failure of the endpoint.
+	 */
+	private static <T> T executeRequest(TransportRequest request, Map<String, String> headers,
+			Exchange<T> exchange, boolean retry) throws IOException
 	{
 		if (headers != null) {
 			for (Map.Entry<String, String> h : headers.entrySet())
 				request.addHeader(h.getKey(), h.getValue());
 		}
+		DecompressingResponseHandler.acceptCompressed(request);
 		
-		HttpResponse response = getHttpClient().execute(request);
+		ResiliencePolicy policy = ResiliencePolicy.getInstance();
+		CircuitBreaker breaker = policy.getCircuitBreaker(request.getUri());
 		
-		int statusCode = response.getStatusLine().getStatusCode();
-		if (statusCode != 200)
-			throw new RuntimeException(request.getURI() + " returned code " + statusCode);
+		for (int attempt = 1; ; attempt++)
+		{
+			if (breaker.tryAcquire() == false)
+				throw new CircuitBreakerOpenException(request.getUri().getHost() + request.getUri().getPath());
+			
+			Exception failure;
+			try {
+				T result = exchange.execute(request);
+				breaker.onSuccess();
+				return result;
+			} catch (UnreadableReplyException e) {
+				breaker.onSuccess();
+				throw e.getCause();
+			} catch (IOException e) {
+				failure = e;
+			} catch (HttpStatusException e) {
+				failure = e;
+			} catch (RuntimeException e) {
+				breaker.onSuccess();
+				throw e;
+			}
+			
+			policy.onFailure(breaker, failure);
+			long delay = retry ? policy.getRetryDelay(attempt, failure) : -1;
+			if (delay < 0) {
+				if (failure instanceof IOException)
+					throw (IOException) failure;
+				throw (HttpStatusException) failure;
+			}
+			
+			log.debug("Retrying request to " + request.getUri() + " in " + delay + "ms after " + failure);
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to retry request to " + request.getUri());
+			}
+		}
+	}
+	
+	/**
+	 * Executes HTTP request once
+	 */
+	private static <T> T executeOnce(final TransportRequest request, final ResponseParser<T> parser) throws IOException
+	{
+		String endpoint = Metrics.getEndpoint(request.getUri().getPath());
+		HttpExchangeTrace trace = beginTrace();
+		long start = System.nanoTime();
+		StatusRecorder<T> handler = new StatusRecorder<T>(new DecompressingResponseHandler<T>(endpoint,
+				new TransportResponseHandler<T>() {
+					public T handle(TransportResponse response) throws IOException {
+						int statusCode = response.getStatusCode();
+						if (statusCode != 200)
+							throw new HttpStatusException(request.getUri().toString(), statusCode,
+									response.getHeader(HttpHeaders.RETRY_AFTER));
 
-		HttpEntity entity = response.getEntity();
-		return EntityUtils.toString(entity);
+						return parser.parse(response.getContent(), response.getCharset());
+					}
+				}, trace));
+		
+		try {
+			return HttpTransports.getInstance().execute(request, handler);
+		} catch (MalformedJsonException e) {
+			// Connection failing while content is read is retried as any other I/O failure
+			throw new UnreadableReplyException(e);
+		} finally {
+			Metrics.getListener().onHttpExchange(endpoint, handler.getStatusCode(), System.nanoTime() - start);
+			if (trace != null)
+				endTrace(trace, request, endpoint, handler.getStatusCode(), start, handler.getHeadersTime(),
+						TimedSocketFactory.stopTiming());
+		}
+	}
+	
+	/**
+	 * Opens HTTP request once, leaving content to be read by the caller
+	 */
+	private static StreamingResponse openOnce(TransportRequest request) throws IOException
+	{
+		String endpoint = Metrics.getEndpoint(request.getUri().getPath());
+		HttpExchangeTrace trace = beginTrace();
+		long start = System.nanoTime();
+		StreamingResponse response;
+		try {
+			response = HttpTransports.getInstance().open(request);
+		} catch (IOException e) {
+			Metrics.getListener().onHttpExchange(endpoint, -1, System.nanoTime() - start);
+			if (trace != null)
+				endTrace(trace, request, endpoint, -1, start, 0, TimedSocketFactory.stopTiming());
+			throw e;
+		}
+		long headersTime = System.nanoTime();
+		
+		int statusCode = response.getStatusCode();
+		if (statusCode != 200) {
+			response.close();
+			Metrics.getListener().onHttpExchange(endpoint, statusCode, System.nanoTime() - start);
+			if (trace != null)
+				endTrace(trace, request, endpoint, statusCode, start, headersTime, TimedSocketFactory.stopTiming());
+			throw new HttpStatusException(request.getUri().toString(), statusCode,
+					response.getHeader(HttpHeaders.RETRY_AFTER));
+		}
+		
+		if (trace == null)
+			return new DecodedStreamingResponse(response, endpoint, start, null);
+		return new DecodedStreamingResponse(response, endpoint, start,
+				new TracedExchange(trace, request, headersTime, TimedSocketFactory.stopTiming()));
 	}
 	
 	/**
@@ -111,22 +367,19 @@ public class HttpHelper
 	 * @param uri request URL
 	 * @param headers additional request headers
 	 * @param params additional request parameters
-	 * @return String server reply
+	 * @param parser converts server reply
+	 * @return parsed server reply
 	 */
-	private static String doPost(String uri, Map<String, String> headers, Map<String, String> params)
+	private static <T> T doPost(String uri, Map<String, String> headers, Map<String, String> params,
+			ResponseParser<T> parser)
 	{
 		try {
-			HttpPost post = new HttpPost(uri);
+			TransportRequest post = new TransportRequest(TransportRequest.METHOD_POST, URI.create(uri));
+			post.setForm(params);
 
-			if (params != null) {
-				List<NameValuePair> pairs = new ArrayList<NameValuePair>();
-				for (Map.Entry<String, String> p : params.entrySet())
-					pairs.add(new BasicNameValuePair(p.getKey(), p.getValue()));
-
-				post.setEntity(new UrlEncodedFormEntity(pairs));
-			}
-
-			return executeRequest(post, headers);
+			// Authorization code is good for a single exchange only
+			boolean retry = GRANT_AUTHORIZATION_CODE.equals(params.get(PARAM_GRANT_TYPE)) == false;
+			return executeRequest(post, headers, parser, retry);
 		} 
 		catch (IOException e) {
 			log.debug("Error executing HTTP POST request to " + uri, e);
@@ -137,12 +390,130 @@ public class HttpHelper
 		return null;
 	}
 
+	/**
+	 * Single attempt of a request
+	 */
+	interface Exchange<T>
+	{
+		T execute(TransportRequest request) throws IOException;
+	}
+
+	/**
+	 * Failure to parse reply server has sent in full
+	 */
+	private static class UnreadableReplyException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		UnreadableReplyException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/**
+	 * Begins trace of HTTP exchange, if it is recorded at all, along with
+	 * measuring connect time of the calling thread
+	 */
+	private static HttpExchangeTrace beginTrace()
+	{
+		HttpExchangeTrace trace = Tracing.getHook().beginHttpExchange();
+		if (trace != null)
+			TimedSocketFactory.startTiming();
+		return trace;
+	}
+	
+	/**
+	 * Ends trace of HTTP exchange
+	 * @param start when request was sent, in nanoseconds
+	 * @param headersTime when response headers arrived, in nanoseconds, 0 if they have not
+	 * @param connectNanos connect time, 0 if it is not known
+	 */
+	static void endTrace(HttpExchangeTrace trace, TransportRequest request, String endpoint, int statusCode,
+			long start, long headersTime, long connectNanos)
+	{
+		trace.setConnectTime(connectNanos);
+		if (headersTime != 0)
+			trace.setWaitTime(headersTime - start - connectNanos);
+		trace.end(endpoint, request.getMethod(), statusCode);
+	}
+	
+	/**
+	 * Trace of streamed exchange, ended when response is closed. Time the
+	 * caller spends on content between reads counts as parse time.
+	 */
+	static class TracedExchange
+	{
+		final HttpExchangeTrace trace;
+		final TransportRequest request;
+		final long headersTime;
+		final long connectNanos;
+		
+		TracedExchange(HttpExchangeTrace trace, TransportRequest request, long headersTime, long connectNanos) {
+			this.trace = trace;
+			this.request = request;
+			this.headersTime = headersTime;
+			this.connectNanos = connectNanos;
+		}
+	}
+
+	/**
+	 * Streamed response with compressed content inflated while it is read.
+	 * Exchange is reported once the response is closed.
+	 */
+	static class DecodedStreamingResponse extends DecompressingResponseHandler.DecodedResponse implements StreamingResponse
+	{
+		private final StreamingResponse response;
+		private final String endpoint;
+		private final long start;
+		private final TracedExchange traced;
+		private boolean closed;
+
+		/**
+		 * @param traced trace of the exchange or null if it is not traced
+		 */
+		DecodedStreamingResponse(StreamingResponse response, String endpoint, long start, TracedExchange traced)
+		{
+			super(response, traced != null);
+			this.response = response;
+			this.endpoint = endpoint;
+			this.start = start;
+			this.traced = traced;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (closed)
+				return;
+
+			closed = true;
+			try {
+				// Connection is reused only if content has been read to the end
+				finish();
+			} finally {
+				response.close();
+				report(endpoint, start);
+				Metrics.getListener().onHttpExchange(endpoint, getStatusCode(), System.nanoTime() - start);
+				if (traced != null) {
+					trace(traced.trace, traced.headersTime);
+					endTrace(traced.trace, traced.request, endpoint, getStatusCode(), start, traced.headersTime,
+							traced.connectNanos);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Returns headers for basic authentication
 	 * @param username
 	 * @param password
 	 */
-	private static Map<String, String> getBasicAuthenticationHeader(String username, String password)
+	static Map<String, String> getBasicAuthenticationHeader(String username, String password)
 	{
 		byte[] encodedBytes = Base64.encodeBase64((username + ":" + password).getBytes());
 		String encoded = new String(encodedBytes);
@@ -150,9 +521,4 @@ public class HttpHelper
 		header.put("Authorization", "Basic " + encoded);
 		return header;
 	}
-	
-	private static HttpClient getHttpClient()
-	{
-		return HttpClientBuilder.create().build();
-	}
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.sequencing.oauth.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP client library HttpHelper and AsyncHttpHelper execute requests with.
+ * Transport in use is chosen by httpTransport setting, see {@link HttpTransports}.
+ */
+public interface HttpTransport extends Closeable
+{
+	/**
+	 * Executes request, blocking until handler has converted the reply.
+	 * Response content is released once handler returns.
+	 */
+	<T> T execute(TransportRequest request, TransportResponseHandler<T> handler) throws IOException;
+
+	/**
+	 * Executes request, blocking until response headers have arrived. Content
+	 * is left for the caller to read, who has to close the response.
+	 */
+	StreamingResponse open(TransportRequest request) throws IOException;
+
+	/**
+	 * Executes request without blocking. Cancelling returned future aborts
+	 * the exchange if transport supports it.
+	 */
+	<T> CompletableFuture<T> executeAsync(TransportRequest request, TransportResponseHandler<T> handler);
+
+	/**
+	 * Opens connections to host of given URI ahead of requests to it, as far
+	 * as transport keeps connections between requests
+	 * @param uri URI of the host, path is ignored
+	 * @param count number of connections wanted
+	 * @return number of connections opened
+	 */
+	int preconnect(URI uri, int count) throws IOException;
+}
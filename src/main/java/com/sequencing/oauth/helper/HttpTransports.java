@@ -0,0 +1,101 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Holds HTTP transport shared by all requests
+ */
+public class HttpTransports
+{
+	private static final Logger log = LoggerFactory.getLogger(HttpTransports.class);
+
+	/**
+	 * Apache HttpClient, HTTP/1.1 with pooled connections
+	 */
+	public static final String APACHE = "apache";
+
+	/**
+	 * java.net.http.HttpClient, HTTP/2 with multiplexed connections. Needs Java 11.
+	 */
+	public static final String JDK = "jdk";
+
+	/**
+	 * Implementation of JDK transport, present in multi-release JAR for Java 11 and later
+	 */
+	private static final String JDK_TRANSPORT_CLASS = "com.sequencing.oauth.helper.JdkHttpTransport";
+
+	private static volatile HttpTransport instance;
+
+	/**
+	 * Creates shared transport from given configuration. Transport is created only
+	 * once, subsequent calls have no effect until {@link #shutdown()} is called.
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (instance != null)
+			return;
+
+		synchronized (HttpTransports.class) {
+			if (instance == null)
+				instance = create(parameters);
+		}
+	}
+
+	/**
+	 * Returns shared transport, creating it with default settings if it has
+	 * not been configured yet
+	 */
+	public static HttpTransport getInstance()
+	{
+		HttpTransport transport = instance;
+		if (transport == null) {
+			configure(new AuthenticationParameters.ConfigurationBuilder().build());
+			transport = instance;
+		}
+		return transport;
+	}
+
+	/**
+	 * Returns whether shared transport is backed by Apache HttpClient
+	 */
+	public static boolean isApache() {
+		return getInstance() instanceof ApacheHttpTransport;
+	}
+
+	/**
+	 * Closes shared transport
+	 */
+	public static synchronized void shutdown()
+	{
+		if (instance == null)
+			return;
+
+		try {
+			instance.close();
+		} catch (IOException e) {
+			log.debug("Error closing HTTP transport", e);
+		}
+		instance = null;
+	}
+
+	private static HttpTransport create(AuthenticationParameters parameters)
+	{
+		if (JDK.equals(parameters.getHttpTransport()))
+		{
+			try {
+				return (HttpTransport) Class.forName(JDK_TRANSPORT_CLASS)
+						.getConstructor(AuthenticationParameters.class).newInstance(parameters);
+			} catch (Exception e) {
+				log.warn("JDK HTTP transport is not available, falling back to Apache HttpClient", e);
+			} catch (LinkageError e) {
+				log.warn("JDK HTTP transport is not available, falling back to Apache HttpClient", e);
+			}
+		}
+		return new ApacheHttpTransport();
+	}
+}
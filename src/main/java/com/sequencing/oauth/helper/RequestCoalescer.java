@@ -0,0 +1,126 @@
+package com.sequencing.oauth.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates identical requests in flight. Callers that ask for the same key
+ * while a request is running share its result instead of starting another one.
+ * Table of running requests is split into stripes with a lock of their own, so
+ * that unrelated keys do not contend.
+ */
+public class RequestCoalescer
+{
+	private final Stripe[] stripes;
+	private final int mask;
+	private final AtomicLong executedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * @param concurrencyLevel expected number of concurrently updating threads,
+	 * rounded up to a power of two to get the number of stripes
+	 */
+	public RequestCoalescer(int concurrencyLevel)
+	{
+		int size = Integer.highestOneBit(Math.max(concurrencyLevel - 1, 1)) << 1;
+		stripes = new Stripe[size];
+		for (int i = 0; i < size; i++)
+			stripes[i] = new Stripe();
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns result of request with given key, starting the request only if
+	 * no identical one is running. Cancelling returned future does not affect
+	 * other callers sharing the request.
+	 * @param key identity of request, must implement equals and hashCode
+	 * @param request starts the request
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> execute(final Object key, Supplier<CompletableFuture<T>> request)
+	{
+		final Stripe stripe = getStripe(key);
+		final CompletableFuture<T> shared;
+
+		synchronized (stripe) {
+			CompletableFuture<?> running = stripe.inFlight.get(key);
+			if (running != null) {
+				coalescedCount.incrementAndGet();
+				return share((CompletableFuture<T>) running);
+			}
+
+			shared = new CompletableFuture<T>();
+			stripe.inFlight.put(key, shared);
+		}
+
+		executedCount.incrementAndGet();
+		shared.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				synchronized (stripe) {
+					stripe.inFlight.remove(key);
+				}
+			}
+		});
+
+		try {
+			request.get().whenComplete(new BiConsumer<T, Throwable>() {
+				public void accept(T value, Throwable e) {
+					if (e != null)
+						shared.completeExceptionally(e);
+					else
+						shared.complete(value);
+				}
+			});
+		} catch (RuntimeException e) {
+			shared.completeExceptionally(e);
+		}
+
+		return share(shared);
+	}
+
+	/**
+	 * Returns number of requests actually started
+	 */
+	public long getExecutedCount() {
+		return executedCount.get();
+	}
+
+	/**
+	 * Returns number of calls served by a request that was already running
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	private Stripe getStripe(Object key)
+	{
+		int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & mask];
+	}
+
+	/**
+	 * Returns future completed along with shared one
+	 */
+	private static <T> CompletableFuture<T> share(CompletableFuture<T> shared)
+	{
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		shared.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T value, Throwable e) {
+				if (e != null)
+					result.completeExceptionally(e);
+				else
+					result.complete(value);
+			}
+		});
+		return result;
+	}
+
+	static class Stripe
+	{
+		final Map<Object, CompletableFuture<?>> inFlight = new HashMap<Object, CompletableFuture<?>>();
+	}
+}
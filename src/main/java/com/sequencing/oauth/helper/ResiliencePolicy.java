@@ -0,0 +1,218 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.utils.DateUtils;
+
+import com.google.gson.stream.MalformedJsonException;
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.exception.CircuitBreakerOpenException;
+import com.sequencing.oauth.exception.HttpStatusException;
+
+/**
+ * Decides whether failed requests to sequencing.com are retried and when.
+ * Retries are delayed by capped exponential backoff with full jitter, or by
+ * Retry-After header when server sends one. Every endpoint has its own
+ * circuit breaker shared by synchronous and asynchronous requests.
+ */
+public class ResiliencePolicy
+{
+	/**
+	 * Policy shared by all requests
+	 */
+	private static volatile ResiliencePolicy instance;
+
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final int failureThreshold;
+	private final long openDuration;
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private volatile ScheduledExecutorService timer;
+
+	public ResiliencePolicy(AuthenticationParameters parameters)
+	{
+		maxAttempts = Math.max(parameters.getRetryMaxAttempts(), 1);
+		baseDelay = parameters.getRetryBaseDelay();
+		maxDelay = parameters.getRetryMaxDelay();
+		failureThreshold = parameters.getCircuitBreakerFailureThreshold();
+		openDuration = parameters.getCircuitBreakerOpenDuration();
+	}
+
+	/**
+	 * Creates shared policy from given configuration. Policy is created only
+	 * once, subsequent calls have no effect until {@link #shutdown()} is called.
+	 */
+	public static void configure(AuthenticationParameters parameters)
+	{
+		if (instance != null)
+			return;
+
+		synchronized (ResiliencePolicy.class) {
+			if (instance == null)
+				instance = new ResiliencePolicy(parameters);
+		}
+	}
+
+	/**
+	 * Returns shared policy, creating it with default settings if it has
+	 * not been configured yet
+	 */
+	public static ResiliencePolicy getInstance()
+	{
+		ResiliencePolicy policy = instance;
+		if (policy == null) {
+			configure(new AuthenticationParameters.ConfigurationBuilder().build());
+			policy = instance;
+		}
+		return policy;
+	}
+
+	/**
+	 * Drops shared policy along with state of circuit breakers
+	 */
+	public static synchronized void shutdown()
+	{
+		if (instance == null)
+			return;
+
+		if (instance.timer != null)
+			instance.timer.shutdownNow();
+		instance = null;
+	}
+
+	/**
+	 * Returns circuit breaker of the endpoint given URL belongs to
+	 */
+	public CircuitBreaker getCircuitBreaker(URI uri)
+	{
+		String endpoint = uri.getHost() + uri.getPath();
+		CircuitBreaker breaker = circuitBreakers.get(endpoint);
+		if (breaker == null) {
+			CircuitBreaker created = new CircuitBreaker(failureThreshold, openDuration);
+			breaker = circuitBreakers.putIfAbsent(endpoint, created);
+			if (breaker == null)
+				breaker = created;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Returns circuit breakers by endpoint
+	 */
+	public Map<String, CircuitBreaker> getCircuitBreakers() {
+		return Collections.unmodifiableMap(circuitBreakers);
+	}
+
+	/**
+	 * Records outcome of failed request with circuit breaker of its endpoint.
+	 * Replies that do not indicate trouble on server side count as success.
+	 */
+	public void onFailure(CircuitBreaker breaker, Throwable e)
+	{
+		if (isTransient(e))
+			breaker.onFailure();
+		else if (e instanceof CircuitBreakerOpenException == false)
+			breaker.onSuccess();
+	}
+
+	/**
+	 * Returns delay in milliseconds before next attempt of failed request,
+	 * or -1 if request is not to be retried
+	 * @param attempt number of attempts made so far
+	 * @param e failure of the last attempt
+	 */
+	public long getRetryDelay(int attempt, Throwable e)
+	{
+		if (attempt >= maxAttempts || isTransient(e) == false)
+			return -1;
+
+		long delay = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 30));
+		delay = ThreadLocalRandom.current().nextLong(delay + 1);
+
+		if (e instanceof HttpStatusException) {
+			long retryAfter = parseRetryAfter(((HttpStatusException) e).getRetryAfter());
+			if (retryAfter > maxDelay)
+				return -1;
+			delay = Math.max(delay, retryAfter);
+		}
+		return delay;
+	}
+
+	/**
+	 * Runs given task after a delay on a shared timer thread
+	 */
+	public void schedule(Runnable task, long delay)
+	{
+		ScheduledExecutorService executor = timer;
+		if (executor == null) {
+			synchronized (this) {
+				if (timer == null)
+					timer = createTimer();
+				executor = timer;
+			}
+		}
+		executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns whether failure is likely to go away on its own
+	 */
+	private static boolean isTransient(Throwable e)
+	{
+		if (e instanceof CircuitBreakerOpenException)
+			return false;
+		// Content server has sent will not read better next time
+		if (e instanceof MalformedJsonException)
+			return false;
+		if (e instanceof IOException)
+			return true;
+		if (e instanceof HttpStatusException) {
+			int statusCode = ((HttpStatusException) e).getStatusCode();
+			return statusCode == 408 || statusCode == 429 || statusCode == 500
+					|| statusCode == 502 || statusCode == 503 || statusCode == 504;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns Retry-After value in milliseconds, header may contain
+	 * either number of seconds or HTTP date
+	 */
+	private static long parseRetryAfter(String value)
+	{
+		if (value == null)
+			return 0;
+
+		try {
+			return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			return date != null ? Math.max(date.getTime() - System.currentTimeMillis(), 0) : 0;
+		}
+	}
+
+	private static ScheduledExecutorService createTimer()
+	{
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "sequencing-http-retry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		return executor;
+	}
+}
@@ -0,0 +1,18 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Converts content of HTTP response into an object
+ */
+public interface ResponseParser<T>
+{
+	/**
+	 * Reads response content
+	 * @param content response entity stream
+	 * @param charset charset declared by server or UTF-8 if there is none
+	 */
+	public T parse(InputStream content, Charset charset) throws IOException;
+}
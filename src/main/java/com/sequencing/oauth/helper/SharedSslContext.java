@@ -0,0 +1,33 @@
+package com.sequencing.oauth.helper;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.ssl.SSLContexts;
+
+/**
+ * Holds SSL context shared by all HTTP connection pools and transports. TLS
+ * sessions are cached per context, so that sharing one lets connections opened
+ * by any pool, including ones warmed up at startup, resume sessions negotiated
+ * by another instead of going through a full handshake. Context outlives
+ * pools, so sessions survive helpers being shut down and configured again.
+ */
+public class SharedSslContext
+{
+	private static volatile SSLContext instance;
+
+	/**
+	 * Returns shared context, created with default trust material on first use
+	 */
+	public static SSLContext get()
+	{
+		SSLContext context = instance;
+		if (context == null) {
+			synchronized (SharedSslContext.class) {
+				if (instance == null)
+					instance = SSLContexts.createDefault();
+				context = instance;
+			}
+		}
+		return context;
+	}
+}
@@ -0,0 +1,36 @@
+package com.sequencing.oauth.helper;
+
+import java.security.SecureRandom;
+
+/**
+ * Generates random oAuth2 state values. All threads share a single generator
+ * seeded by the platform, which is thread-safe and needs no per-thread setup,
+ * so that short-lived threads do not pay for seeding.
+ */
+public class StateGenerator
+{
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Number of random bytes in a state value
+	 */
+	private static final int STATE_BYTES = 16;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Returns 32 hex characters long random string
+	 */
+	public static String nextState()
+	{
+		byte[] bytes = new byte[STATE_BYTES];
+		random.nextBytes(bytes);
+
+		char[] result = new char[STATE_BYTES * 2];
+		for (int i = 0; i < STATE_BYTES; i++) {
+			result[2 * i] = HEX[(bytes[i] >> 4) & 0x0f];
+			result[2 * i + 1] = HEX[bytes[i] & 0x0f];
+		}
+		return new String(result);
+	}
+}
@@ -0,0 +1,41 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+
+/**
+ * Remembers status code of the response passed on to another handler,
+ * which tells whether server has replied at all, and when it has
+ */
+class StatusRecorder<T> implements TransportResponseHandler<T>
+{
+	private final TransportResponseHandler<T> handler;
+	private volatile int statusCode = -1;
+	private volatile long headersTime;
+
+	StatusRecorder(TransportResponseHandler<T> handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	public T handle(TransportResponse response) throws IOException
+	{
+		headersTime = System.nanoTime();
+		statusCode = response.getStatusCode();
+		return handler.handle(response);
+	}
+
+	/**
+	 * Returns status code of the response or -1 if there has been none
+	 */
+	int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Returns {@link System#nanoTime()} when response headers arrived or 0 if
+	 * there has been no response
+	 */
+	long getHeadersTime() {
+		return headersTime;
+	}
+}
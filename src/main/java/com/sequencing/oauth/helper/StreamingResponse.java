@@ -0,0 +1,11 @@
+package com.sequencing.oauth.helper;
+
+import java.io.Closeable;
+
+/**
+ * HTTP response whose content is read after the request has returned.
+ * Closing releases the connection, discarding content not read yet.
+ */
+public interface StreamingResponse extends TransportResponse, Closeable
+{
+}
@@ -0,0 +1,31 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Reads whole response content into a String
+ */
+public class StringParser implements ResponseParser<String>
+{
+	public static final StringParser INSTANCE = new StringParser();
+
+	@Override
+	public String parse(InputStream content, Charset charset) throws IOException
+	{
+		Reader reader = new InputStreamReader(content, charset);
+		try {
+			StringBuilder result = new StringBuilder();
+			char[] buffer = new char[4096];
+			int read;
+			while ((read = reader.read(buffer)) != -1)
+				result.append(buffer, 0, read);
+			return result.toString();
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Socket factory measuring time calling thread spends opening connections,
+ * TLS handshake included, for exchange traces. Time is only added up between
+ * {@link #startTiming()} and {@link #stopTiming()} on the same thread.
+ */
+class TimedSocketFactory implements LayeredConnectionSocketFactory
+{
+	private static final ThreadLocal<long[]> connectTime = new ThreadLocal<long[]>();
+
+	private final ConnectionSocketFactory factory;
+
+	TimedSocketFactory(ConnectionSocketFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Starts adding up connect time of current thread
+	 */
+	static void startTiming() {
+		connectTime.set(new long[1]);
+	}
+
+	/**
+	 * Stops adding up connect time of current thread
+	 * @return connect time since {@link #startTiming()} in nanoseconds
+	 */
+	static long stopTiming()
+	{
+		long[] elapsed = connectTime.get();
+		connectTime.remove();
+		return elapsed != null ? elapsed[0] : 0;
+	}
+
+	@Override
+	public Socket createSocket(HttpContext context) throws IOException {
+		return factory.createSocket(context);
+	}
+
+	@Override
+	public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+			InetSocketAddress localAddress, HttpContext context) throws IOException
+	{
+		long start = System.nanoTime();
+		try {
+			return factory.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+		} finally {
+			addConnectTime(start);
+		}
+	}
+
+	@Override
+	public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException
+	{
+		if (factory instanceof LayeredConnectionSocketFactory == false)
+			throw new UnsupportedOperationException("Socket factory does not support layering");
+
+		long start = System.nanoTime();
+		try {
+			return ((LayeredConnectionSocketFactory) factory).createLayeredSocket(socket, target, port, context);
+		} finally {
+			addConnectTime(start);
+		}
+	}
+
+	private static void addConnectTime(long start)
+	{
+		long[] elapsed = connectTime.get();
+		if (elapsed != null)
+			elapsed[0] += System.nanoTime() - start;
+	}
+}
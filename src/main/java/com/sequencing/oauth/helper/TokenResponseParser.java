@@ -0,0 +1,63 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.sequencing.oauth.core.Token;
+
+/**
+ * Reads token endpoint reply in a single streaming pass straight into a
+ * Token, without building intermediate String or JSON tree. Refresh token
+ * of the result is null when reply carries none, as refresh replies may.
+ * Error reply and reply lacking access token or its lifetime are rejected
+ * with JsonParseException.
+ */
+public class TokenResponseParser implements ResponseParser<Token>
+{
+	public static final TokenResponseParser INSTANCE = new TokenResponseParser();
+
+	@Override
+	public Token parse(InputStream content, Charset charset) throws IOException
+	{
+		JsonReader reader = new JsonReader(new InputStreamReader(content, charset));
+		try {
+			String accessToken = null;
+			String refreshToken = null;
+			long lifetime = -1;
+			String error = null;
+			String errorDescription = null;
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String field = reader.nextName();
+				if ("access_token".equals(field))
+					accessToken = FileMetadataParser.readString(reader);
+				else if ("refresh_token".equals(field))
+					refreshToken = FileMetadataParser.readString(reader);
+				else if ("expires_in".equals(field))
+					lifetime = reader.nextLong();
+				else if ("error".equals(field))
+					error = FileMetadataParser.readString(reader);
+				else if ("error_description".equals(field))
+					errorDescription = FileMetadataParser.readString(reader);
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+
+			if (error != null)
+				throw new JsonParseException("Token endpoint replied with error " + error
+						+ (errorDescription != null ? ": " + errorDescription : ""));
+			if (accessToken == null || lifetime < 0)
+				throw new JsonParseException("Token endpoint reply lacks access token or its lifetime");
+
+			return new Token(accessToken, refreshToken, lifetime);
+		} finally {
+			reader.close();
+		}
+	}
+}
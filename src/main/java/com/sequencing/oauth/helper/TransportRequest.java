@@ -0,0 +1,53 @@
+package com.sequencing.oauth.helper;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HTTP request independent of client library
+ */
+public class TransportRequest
+{
+	public static final String METHOD_GET = "GET";
+	public static final String METHOD_POST = "POST";
+
+	private final String method;
+	private final URI uri;
+	private final Map<String, String> headers = new LinkedHashMap<String, String>();
+	private Map<String, String> form;
+
+	public TransportRequest(String method, URI uri) {
+		this.method = method;
+		this.uri = uri;
+	}
+
+	public TransportRequest addHeader(String name, String value) {
+		headers.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Sets parameters sent URL encoded in request body
+	 */
+	public TransportRequest setForm(Map<String, String> form) {
+		this.form = form;
+		return this;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public Map<String, String> getForm() {
+		return form;
+	}
+}
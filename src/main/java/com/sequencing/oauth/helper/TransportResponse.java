@@ -0,0 +1,28 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * HTTP response independent of client library
+ */
+public interface TransportResponse
+{
+	int getStatusCode();
+
+	/**
+	 * Returns value of the first header with given name or null if there is none
+	 */
+	String getHeader(String name);
+
+	/**
+	 * Returns response content, empty stream if there is none
+	 */
+	InputStream getContent() throws IOException;
+
+	/**
+	 * Returns charset declared by server or UTF-8 if there is none
+	 */
+	Charset getCharset();
+}
@@ -0,0 +1,11 @@
+package com.sequencing.oauth.helper;
+
+import java.io.IOException;
+
+/**
+ * Converts HTTP response into result of the request
+ */
+public interface TransportResponseHandler<T>
+{
+	T handle(TransportResponse response) throws IOException;
+}
@@ -0,0 +1,37 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Timings of a single HTTP exchange, collected while it goes on. Phases not
+ * reached or not reported by transport in use are left at zero.
+ */
+public interface HttpExchangeTrace
+{
+	/**
+	 * Sets time spent opening connection, TLS handshake included
+	 */
+	public void setConnectTime(long nanos);
+
+	/**
+	 * Sets time from sending request until response headers arrived,
+	 * connect time excluded
+	 */
+	public void setWaitTime(long nanos);
+
+	/**
+	 * Sets figures of response content
+	 * @param encoding Content-Encoding of the reply, null if it has not been compressed
+	 * @param wireBytes content bytes received from server
+	 * @param decodedBytes content bytes after decompression
+	 * @param readNanos time spent waiting for content to arrive
+	 * @param parseNanos time spent decompressing and parsing content
+	 */
+	public void setContent(String encoding, long wireBytes, long decodedBytes, long readNanos, long parseNanos);
+
+	/**
+	 * Ends the trace
+	 * @param endpoint endpoint name, e.g. "token" or "DataSourceList"
+	 * @param method HTTP method
+	 * @param statusCode HTTP status code or -1 if exchange failed with I/O error
+	 */
+	public void end(String endpoint, String method, int statusCode);
+}
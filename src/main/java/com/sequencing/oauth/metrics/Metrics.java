@@ -0,0 +1,93 @@
+package com.sequencing.oauth.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.pool.PoolStats;
+
+import com.sequencing.oauth.helper.AsyncHttpHelper;
+import com.sequencing.oauth.helper.HttpHelper;
+
+/**
+ * Holds process-wide metrics listener. No measurements are reported until
+ * a listener is set.
+ */
+public class Metrics
+{
+	public static final String ENDPOINT_TOKEN = "token";
+	public static final String ENDPOINT_DATA_SOURCE_LIST = "DataSourceList";
+	public static final String POOL_SYNC = "sync";
+	public static final String POOL_ASYNC = "async";
+
+	/**
+	 * How often, in seconds, connection pool utilisation is reported
+	 */
+	private static final long POOL_STATS_PERIOD = 10;
+
+	private static volatile MetricsListener listener = NoopMetricsListener.INSTANCE;
+	private static ScheduledExecutorService poolStatsReporter;
+
+	/**
+	 * Returns current listener, never null
+	 */
+	public static MetricsListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Sets listener to report measurements to, null restores no-op one
+	 */
+	public static synchronized void setListener(MetricsListener metricsListener)
+	{
+		listener = metricsListener != null ? metricsListener : NoopMetricsListener.INSTANCE;
+
+		if (listener == NoopMetricsListener.INSTANCE) {
+			if (poolStatsReporter != null) {
+				poolStatsReporter.shutdownNow();
+				poolStatsReporter = null;
+			}
+		} else if (poolStatsReporter == null) {
+			poolStatsReporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "sequencing-metrics-pool-stats");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			poolStatsReporter.scheduleAtFixedRate(new PoolStatsTask(), 0, POOL_STATS_PERIOD, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Returns endpoint name of given URL, which is the last segment of its path
+	 */
+	public static String getEndpoint(String uri)
+	{
+		int end = uri.indexOf('?');
+		if (end < 0)
+			end = uri.length();
+		if (end > 0 && uri.charAt(end - 1) == '/')
+			end--;
+
+		int start = uri.lastIndexOf('/', end - 1) + 1;
+		return uri.substring(start, end);
+	}
+
+	static class PoolStatsTask implements Runnable
+	{
+		public void run()
+		{
+			MetricsListener current = listener;
+			if (HttpHelper.hasConnectionPool())
+				report(current, POOL_SYNC, HttpHelper.getConnectionPool().getTotalStats());
+			if (AsyncHttpHelper.hasConnectionPool())
+				report(current, POOL_ASYNC, AsyncHttpHelper.getConnectionPool().getTotalStats());
+		}
+
+		private static void report(MetricsListener listener, String pool, PoolStats stats) {
+			listener.onConnectionPoolStats(pool, stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Receives measurements of HTTP calls to sequencing.com and of token lifecycle.
+ * Implementations are called on request threads and must be cheap and
+ * thread-safe; bridge them to your own metrics registry as needed.
+ */
+public interface MetricsListener
+{
+	/**
+	 * Called when HTTP exchange with backend completes
+	 * @param endpoint endpoint name, e.g. "token" or "DataSourceList"
+	 * @param statusCode HTTP status code or -1 if exchange failed with I/O error
+	 * @param durationNanos time from sending request until reply has been read
+	 */
+	public void onHttpExchange(String endpoint, int statusCode, long durationNanos);
+
+	/**
+	 * Called when response content has been read
+	 * @param endpoint endpoint name, e.g. "token" or "DataSourceList"
+	 * @param encoding Content-Encoding of the reply, null if it has not been compressed
+	 * @param wireBytes content bytes received from server
+	 * @param decodedBytes content bytes after decompression
+	 * @param decodeNanos time spent reading, decompressing and parsing content
+	 */
+	public void onResponseContent(String endpoint, String encoding, long wireBytes, long decodedBytes, long decodeNanos);
+
+	/**
+	 * Called when token refresh completes
+	 * @param success whether new access token has been obtained
+	 * @param lagMillis how late scheduled refresh started, 0 for on-demand refresh
+	 * @param timeToExpiryMillis how long the old access token still had to live
+	 */
+	public void onTokenRefresh(boolean success, long lagMillis, long timeToExpiryMillis);
+
+	/**
+	 * Called periodically with utilisation of a connection pool
+	 * @param pool pool name, "sync" or "async"
+	 * @param leased connections in use
+	 * @param available idle connections ready for reuse
+	 * @param pending requests waiting for a connection
+	 * @param max maximum number of connections
+	 */
+	public void onConnectionPoolStats(String pool, int leased, int available, int pending, int max);
+}
@@ -0,0 +1,25 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Listener that ignores all measurements
+ */
+public class NoopMetricsListener implements MetricsListener
+{
+	public static final NoopMetricsListener INSTANCE = new NoopMetricsListener();
+
+	@Override
+	public void onHttpExchange(String endpoint, int statusCode, long durationNanos) {
+	}
+
+	@Override
+	public void onResponseContent(String endpoint, String encoding, long wireBytes, long decodedBytes, long decodeNanos) {
+	}
+
+	@Override
+	public void onTokenRefresh(boolean success, long lagMillis, long timeToExpiryMillis) {
+	}
+
+	@Override
+	public void onConnectionPoolStats(String pool, int leased, int available, int pending, int max) {
+	}
+}
@@ -0,0 +1,19 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Hook that traces nothing
+ */
+public class NoopTraceHook implements TraceHook
+{
+	public static final NoopTraceHook INSTANCE = new NoopTraceHook();
+
+	@Override
+	public HttpExchangeTrace beginHttpExchange() {
+		return null;
+	}
+
+	@Override
+	public TokenRefreshTrace beginTokenRefresh() {
+		return null;
+	}
+}
@@ -0,0 +1,202 @@
+package com.sequencing.oauth.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-library lock-free recorder of all measurements. Cheap enough to be left
+ * on in production; read its getters periodically to export the data.
+ */
+public class RecordingMetricsListener implements MetricsListener
+{
+	private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+	private final ConcurrentMap<String, PoolMetrics> pools = new ConcurrentHashMap<String, PoolMetrics>();
+
+	private final LongAdder refreshSuccessCount = new LongAdder();
+	private final LongAdder refreshFailureCount = new LongAdder();
+	private final Histogram refreshLag = new Histogram();
+	private final Histogram timeToExpiryAtRefresh = new Histogram();
+
+	@Override
+	public void onHttpExchange(String endpoint, int statusCode, long durationNanos)
+	{
+		EndpointMetrics metrics = getEndpoint(endpoint);
+		metrics.latency.record(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+		metrics.getStatusCounter(statusCode).increment();
+	}
+
+	@Override
+	public void onResponseContent(String endpoint, String encoding, long wireBytes, long decodedBytes, long decodeNanos)
+	{
+		EndpointMetrics metrics = getEndpoint(endpoint);
+		metrics.wireBytes.add(wireBytes);
+		metrics.decodedBytes.add(decodedBytes);
+		metrics.decodeTime.record(TimeUnit.NANOSECONDS.toMicros(decodeNanos));
+	}
+
+	@Override
+	public void onTokenRefresh(boolean success, long lagMillis, long timeToExpiryMillis)
+	{
+		if (success)
+			refreshSuccessCount.increment();
+		else
+			refreshFailureCount.increment();
+
+		refreshLag.record(lagMillis);
+		timeToExpiryAtRefresh.record(timeToExpiryMillis);
+	}
+
+	@Override
+	public void onConnectionPoolStats(String pool, int leased, int available, int pending, int max)
+	{
+		PoolMetrics metrics = pools.get(pool);
+		if (metrics == null) {
+			pools.putIfAbsent(pool, new PoolMetrics());
+			metrics = pools.get(pool);
+		}
+		metrics.leased = leased;
+		metrics.available = available;
+		metrics.pending = pending;
+		metrics.max = max;
+	}
+
+	/**
+	 * Returns names of endpoints measured so far
+	 */
+	public Set<String> getEndpoints() {
+		return Collections.unmodifiableSet(endpoints.keySet());
+	}
+
+	/**
+	 * Returns latency histogram of given endpoint, in microseconds
+	 */
+	public Histogram getLatency(String endpoint) {
+		return getEndpoint(endpoint).latency;
+	}
+
+	/**
+	 * Returns number of replies per HTTP status code of given endpoint,
+	 * -1 stands for I/O failures
+	 */
+	public Map<Integer, Long> getStatusCounts(String endpoint)
+	{
+		Map<Integer, Long> result = new ConcurrentHashMap<Integer, Long>();
+		for (Map.Entry<Integer, LongAdder> e : getEndpoint(endpoint).statusCounts.entrySet())
+			result.put(e.getKey(), e.getValue().sum());
+		return result;
+	}
+
+	/**
+	 * Returns number of response content bytes received from given endpoint
+	 */
+	public long getWireBytes(String endpoint) {
+		return getEndpoint(endpoint).wireBytes.sum();
+	}
+
+	/**
+	 * Returns number of response content bytes of given endpoint after
+	 * decompression, equal to wire bytes if server does not compress
+	 */
+	public long getDecodedBytes(String endpoint) {
+		return getEndpoint(endpoint).decodedBytes.sum();
+	}
+
+	/**
+	 * Returns histogram of time spent reading response content of given
+	 * endpoint, in microseconds
+	 */
+	public Histogram getDecodeTime(String endpoint) {
+		return getEndpoint(endpoint).decodeTime;
+	}
+
+	public long getRefreshSuccessCount() {
+		return refreshSuccessCount.sum();
+	}
+
+	public long getRefreshFailureCount() {
+		return refreshFailureCount.sum();
+	}
+
+	/**
+	 * Returns histogram of scheduled refresh start delays, in milliseconds
+	 */
+	public Histogram getRefreshLag() {
+		return refreshLag;
+	}
+
+	/**
+	 * Returns histogram of access token remaining lifetime at refresh, in milliseconds
+	 */
+	public Histogram getTimeToExpiryAtRefresh() {
+		return timeToExpiryAtRefresh;
+	}
+
+	/**
+	 * Returns latest utilisation of given connection pool or null if it has
+	 * not been reported yet
+	 */
+	public PoolMetrics getPool(String pool) {
+		return pools.get(pool);
+	}
+
+	private EndpointMetrics getEndpoint(String endpoint)
+	{
+		EndpointMetrics metrics = endpoints.get(endpoint);
+		if (metrics == null) {
+			endpoints.putIfAbsent(endpoint, new EndpointMetrics());
+			metrics = endpoints.get(endpoint);
+		}
+		return metrics;
+	}
+
+	static class EndpointMetrics
+	{
+		final Histogram latency = new Histogram();
+		final Histogram decodeTime = new Histogram();
+		final LongAdder wireBytes = new LongAdder();
+		final LongAdder decodedBytes = new LongAdder();
+		final ConcurrentMap<Integer, LongAdder> statusCounts = new ConcurrentHashMap<Integer, LongAdder>();
+
+		LongAdder getStatusCounter(int statusCode)
+		{
+			LongAdder counter = statusCounts.get(statusCode);
+			if (counter == null) {
+				statusCounts.putIfAbsent(statusCode, new LongAdder());
+				counter = statusCounts.get(statusCode);
+			}
+			return counter;
+		}
+	}
+
+	/**
+	 * Latest reported utilisation of a connection pool
+	 */
+	public static class PoolMetrics
+	{
+		private volatile int leased;
+		private volatile int available;
+		private volatile int pending;
+		private volatile int max;
+
+		public int getLeased() {
+			return leased;
+		}
+
+		public int getAvailable() {
+			return available;
+		}
+
+		public int getPending() {
+			return pending;
+		}
+
+		public int getMax() {
+			return max;
+		}
+	}
+}
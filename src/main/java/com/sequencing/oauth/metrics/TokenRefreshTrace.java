@@ -0,0 +1,16 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Single token refresh
+ */
+public interface TokenRefreshTrace
+{
+	/**
+	 * Ends the trace
+	 * @param clientId OAuth client id of the application
+	 * @param success whether new access token has been obtained
+	 * @param lagMillis how late scheduled refresh started, 0 for on-demand refresh
+	 * @param timeToExpiryMillis how long the old access token still had to live
+	 */
+	public void end(String clientId, boolean success, long lagMillis, long timeToExpiryMillis);
+}
@@ -0,0 +1,22 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Hands timings of individual HTTP exchanges and token refreshes over to a
+ * tracing tool, see {@link Tracing}. Traces are begun before the work starts
+ * and ended once it is over. Hook returns null instead of a trace when the
+ * tool is not recording, so that nothing is measured then.
+ */
+public interface TraceHook
+{
+	/**
+	 * Begins trace of HTTP exchange
+	 * @return trace or null if exchanges are not being recorded
+	 */
+	public HttpExchangeTrace beginHttpExchange();
+
+	/**
+	 * Begins trace of token refresh
+	 * @return trace or null if refreshes are not being recorded
+	 */
+	public TokenRefreshTrace beginTokenRefresh();
+}
@@ -0,0 +1,47 @@
+package com.sequencing.oauth.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds process-wide trace hook. On Java 11 and later it emits Java Flight
+ * Recorder events, which cost next to nothing while no recording is running,
+ * so it is on by default. Elsewhere nothing is traced unless a hook is set.
+ */
+public class Tracing
+{
+	private static final Logger log = LoggerFactory.getLogger(Tracing.class);
+
+	/**
+	 * Flight Recorder hook, present in multi-release JAR for Java 11 and later
+	 */
+	private static final String JFR_HOOK_CLASS = "com.sequencing.oauth.metrics.JfrTraceHook";
+
+	private static volatile TraceHook hook = createDefault();
+
+	/**
+	 * Returns current hook, never null
+	 */
+	public static TraceHook getHook() {
+		return hook;
+	}
+
+	/**
+	 * Sets hook to hand traces over to, null restores the default one
+	 */
+	public static void setHook(TraceHook traceHook) {
+		hook = traceHook != null ? traceHook : createDefault();
+	}
+
+	private static TraceHook createDefault()
+	{
+		try {
+			return (TraceHook) Class.forName(JFR_HOOK_CLASS).getConstructor().newInstance();
+		} catch (Exception e) {
+			log.debug("Flight Recorder events are not available", e);
+		} catch (LinkageError e) {
+			log.debug("Flight Recorder events are not available", e);
+		}
+		return NoopTraceHook.INSTANCE;
+	}
+}
@@ -0,0 +1,205 @@
+package com.sequencing.oauth.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+import com.sequencing.oauth.core.Token;
+
+/**
+ * Write-behind decorator of TokenStore. Saved tokens are kept in memory and
+ * handed over to underlying store in batches by a background thread, either
+ * every flush interval or as soon as batch size is reached. Several saves of
+ * the same user between two flushes result in a single write. With flush
+ * interval of zero or less tokens are written through right away.
+ */
+public class BatchingTokenStore implements TokenStore
+{
+	private static final Logger log = LoggerFactory.getLogger(BatchingTokenStore.class);
+
+	/**
+	 * Marker of pending removal
+	 */
+	private static final Token REMOVED = new Token(null, null, 0, 0);
+
+	private final TokenStore delegate;
+	private final long flushInterval;
+	private final int batchSize;
+	private final ConcurrentMap<String, Token> pending = new ConcurrentHashMap<String, Token>();
+	private final Object flushLock = new Object();
+	private final Object signal = new Object();
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	public BatchingTokenStore(TokenStore delegate, AuthenticationParameters parameters)
+	{
+		this.delegate = delegate;
+		this.flushInterval = parameters.getTokenStoreFlushInterval();
+		this.batchSize = parameters.getTokenStoreBatchSize();
+
+		if (flushInterval > 0) {
+			writer = new Thread(new Writer(), "sequencing-token-store-writer");
+			writer.setDaemon(true);
+			writer.start();
+		} else {
+			writer = null;
+		}
+	}
+
+	@Override
+	public Token load(String user) throws IOException
+	{
+		Token token = pending.get(user);
+		if (token == REMOVED)
+			return null;
+		return token != null ? token : delegate.load(user);
+	}
+
+	@Override
+	public Map<String, Token> loadAll() throws IOException
+	{
+		flush();
+		return delegate.loadAll();
+	}
+
+	@Override
+	public void save(String user, Token token) throws IOException
+	{
+		pending.put(user, token != null ? token : REMOVED);
+		onPendingAdded();
+	}
+
+	@Override
+	public void saveAll(Map<String, Token> tokens) throws IOException
+	{
+		for (Entry<String, Token> e : tokens.entrySet())
+			pending.put(e.getKey(), e.getValue() != null ? e.getValue() : REMOVED);
+		onPendingAdded();
+	}
+
+	@Override
+	public void remove(String user) throws IOException
+	{
+		pending.put(user, REMOVED);
+		onPendingAdded();
+	}
+
+	/**
+	 * Writes pending tokens to underlying store. Tokens that fail to be
+	 * written stay pending and are retried on next flush.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		synchronized (flushLock)
+		{
+			if (pending.isEmpty())
+				return;
+
+			Map<String, Token> batch = new HashMap<String, Token>(pending);
+			Map<String, Token> saved = new HashMap<String, Token>(batch.size());
+			List<String> removed = new ArrayList<String>();
+			for (Entry<String, Token> e : batch.entrySet()) {
+				if (e.getValue() == REMOVED)
+					removed.add(e.getKey());
+				else
+					saved.put(e.getKey(), e.getValue());
+			}
+
+			if (saved.isEmpty() == false)
+				delegate.saveAll(saved);
+			for (String user : removed)
+				delegate.remove(user);
+			delegate.flush();
+
+			// Entries updated while flushing stay for the next flush
+			for (Entry<String, Token> e : batch.entrySet())
+				pending.remove(e.getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Stops background writer, flushes pending tokens and closes underlying store
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		running = false;
+		if (writer != null) {
+			synchronized (signal) {
+				signal.notifyAll();
+			}
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try {
+			flush();
+		} finally {
+			delegate.close();
+		}
+	}
+
+	/**
+	 * Returns number of tokens waiting to be written
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	private void onPendingAdded() throws IOException
+	{
+		if (writer == null) {
+			flush();
+			return;
+		}
+		if (pending.size() < batchSize)
+			return;
+
+		synchronized (signal) {
+			signal.notifyAll();
+		}
+	}
+
+	class Writer implements Runnable
+	{
+		public void run()
+		{
+			boolean failed = false;
+			while (running)
+			{
+				synchronized (signal) {
+					try {
+						if (running && (failed || pending.size() < batchSize))
+							signal.wait(flushInterval);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+
+				try {
+					flush();
+					failed = false;
+				} catch (IOException e) {
+					log.warn("Error persisting tokens, will retry on next flush", e);
+					failed = true;
+				} catch (RuntimeException e) {
+					log.warn("Error persisting tokens, will retry on next flush", e);
+					failed = true;
+				}
+			}
+		}
+	}
+}
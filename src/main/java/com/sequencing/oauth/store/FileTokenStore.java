@@ -0,0 +1,470 @@
+package com.sequencing.oauth.store;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sequencing.oauth.core.Token;
+
+/**
+ * TokenStore kept in a local append-only file. Every change is appended as a
+ * checksummed record and each batch is forced to disk once, so a crash can
+ * lose at most a torn tail, which is detected and cut off on next open.
+ * Damaged record followed by others is not cut off, the store refuses to
+ * open instead. All tokens are held in memory and the file is only read on
+ * open. When most of the records are superseded, the file is compacted into
+ * a new one that atomically replaces it. Files are created readable by their
+ * owner only where file system supports POSIX permissions.
+ */
+public class FileTokenStore implements TokenStore
+{
+	private static final Logger log = LoggerFactory.getLogger(FileTokenStore.class);
+
+	/**
+	 * File header, "STOK" followed by format version
+	 */
+	private static final int MAGIC = 0x53544F4B;
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 8;
+
+	/**
+	 * Record frame consists of payload length and its CRC32
+	 */
+	private static final int FRAME_LENGTH = 8;
+	private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+	private static final byte RECORD_SAVE = 1;
+	private static final byte RECORD_REMOVE = 2;
+
+	/**
+	 * Compaction starts once file has this many records and
+	 * less than half of them are live
+	 */
+	private static final int COMPACTION_THRESHOLD = 10000;
+
+	private static final String OWNER_ONLY = "rw-------";
+
+	private final File file;
+	private final Map<String, Token> tokens;
+	private final RecordBuffer buffer = new RecordBuffer();
+	private final CRC32 crc = new CRC32();
+	private FileChannel channel;
+	private long recordCount;
+	private long position;
+	private boolean tornTail;
+
+	/**
+	 * Number of records next compaction waits for, raised after compaction fails
+	 */
+	private long compactionThreshold = COMPACTION_THRESHOLD;
+
+	/**
+	 * Opens store kept in given file, creating the file if it does not exist
+	 */
+	public FileTokenStore(File file) throws IOException
+	{
+		this.file = file;
+		this.tokens = new ConcurrentHashMap<String, Token>(Math.max(16, (int) (file.length() / 64)));
+
+		if (file.exists() && file.length() > 0)
+			replay();
+		else
+			position = writeNewFile(file, Collections.<String, Token>emptyMap());
+
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		if (tornTail && channel.size() > position) {
+			log.warn("Truncating corrupted tail of token store {} at {}", file, position);
+			channel.truncate(position);
+			channel.force(true);
+		}
+		channel.position(position);
+	}
+
+	@Override
+	public Token load(String user) {
+		return tokens.get(user);
+	}
+
+	@Override
+	public Map<String, Token> loadAll() {
+		return new HashMap<String, Token>(tokens);
+	}
+
+	@Override
+	public void save(String user, Token token) throws IOException {
+		saveAll(Collections.singletonMap(user, token));
+	}
+
+	@Override
+	public synchronized void saveAll(Map<String, Token> batch) throws IOException
+	{
+		ensureOpen();
+		buffer.reset();
+		for (Entry<String, Token> e : batch.entrySet())
+			appendRecord(buffer, e.getKey(), e.getValue());
+
+		write(buffer, batch.size());
+		for (Entry<String, Token> e : batch.entrySet()) {
+			if (e.getValue() == null)
+				tokens.remove(e.getKey());
+			else
+				tokens.put(e.getKey(), e.getValue());
+		}
+		compactIfNeeded();
+	}
+
+	@Override
+	public synchronized void remove(String user) throws IOException
+	{
+		ensureOpen();
+		buffer.reset();
+		appendRecord(buffer, user, null);
+
+		write(buffer, 1);
+		tokens.remove(user);
+		compactIfNeeded();
+	}
+
+	/**
+	 * Does nothing as every change is forced to disk before it is acknowledged
+	 */
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Rewrites the file so that it contains live tokens only
+	 */
+	public synchronized void compact() throws IOException
+	{
+		ensureOpen();
+		File compacted = new File(file.getPath() + ".compact");
+		// Leftover of an earlier compaction is replaced, so that the file gets owner only permissions
+		compacted.delete();
+		long length = writeNewFile(compacted, tokens);
+
+		channel.close();
+		channel = null;
+		try {
+			Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// Old file is still in place, keep appending to it
+			compacted.delete();
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			channel.position(position);
+			throw e;
+		}
+		syncDirectory();
+
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		channel.position(length);
+		position = length;
+		recordCount = tokens.size();
+	}
+
+	/**
+	 * Returns number of tokens in the store
+	 */
+	public int size() {
+		return tokens.size();
+	}
+
+	private void ensureOpen() throws IOException
+	{
+		if (channel == null)
+			throw new IOException("Token store " + file + " has been closed");
+	}
+
+	/**
+	 * Appends records to the file and forces them to disk. Partially written
+	 * records are cut off so that they do not hide subsequent ones.
+	 */
+	private void write(RecordBuffer records, int count) throws IOException
+	{
+		try {
+			ByteBuffer bytes = ByteBuffer.wrap(records.array(), 0, records.size());
+			while (bytes.hasRemaining())
+				channel.write(bytes);
+			channel.force(false);
+		} catch (IOException e) {
+			channel.truncate(position);
+			channel.position(position);
+			throw e;
+		}
+
+		position += records.size();
+		recordCount += count;
+	}
+
+	/**
+	 * Forces rename of the compacted file to disk. Directories cannot be
+	 * opened on some platforms, e.g. Windows, rename is left to the
+	 * file system there.
+	 */
+	private void syncDirectory()
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory == null)
+			return;
+
+		try {
+			FileChannel dir = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+			try {
+				dir.force(true);
+			} finally {
+				dir.close();
+			}
+		} catch (IOException e) {
+			log.debug("Unable to force directory " + directory + " to disk", e);
+		}
+	}
+
+	/**
+	 * Compacts the file if most of its records are superseded. Changes are
+	 * durable by then, so failure is only logged and compaction is tried
+	 * again once as many records as the threshold have been appended.
+	 */
+	private void compactIfNeeded()
+	{
+		if (recordCount < compactionThreshold || recordCount <= 2L * tokens.size())
+			return;
+
+		try {
+			compact();
+			compactionThreshold = COMPACTION_THRESHOLD;
+		} catch (IOException e) {
+			log.warn("Error compacting token store " + file + ", will retry later", e);
+			compactionThreshold = recordCount + COMPACTION_THRESHOLD;
+		}
+	}
+
+	/**
+	 * Creates empty file readable by its owner only, if file system supports it
+	 */
+	private static void createOwnerOnly(File target) throws IOException
+	{
+		Path path = target.toPath();
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+			Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(OWNER_ONLY)));
+		else
+			Files.createFile(path);
+	}
+
+	/**
+	 * Writes given tokens to a new file and forces it to disk
+	 * @return length of the file
+	 */
+	private long writeNewFile(File target, Map<String, Token> content) throws IOException
+	{
+		RecordBuffer records = new RecordBuffer();
+		DataOutputStream header = new DataOutputStream(records);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		for (Entry<String, Token> e : content.entrySet())
+			appendRecord(records, e.getKey(), e.getValue());
+
+		if (target.exists() == false)
+			createOwnerOnly(target);
+		RandomAccessFile raf = new RandomAccessFile(target, "rw");
+		try {
+			FileChannel out = raf.getChannel();
+			out.truncate(0);
+			ByteBuffer bytes = ByteBuffer.wrap(records.array(), 0, records.size());
+			while (bytes.hasRemaining())
+				out.write(bytes);
+			out.force(true);
+		} finally {
+			raf.close();
+		}
+		return records.size();
+	}
+
+	/**
+	 * Appends framed record to the buffer, null token denotes removal
+	 */
+	private void appendRecord(RecordBuffer records, String user, Token token) throws IOException
+	{
+		int start = records.size();
+		DataOutputStream out = new DataOutputStream(records);
+		out.writeLong(0);
+
+		if (token == null) {
+			out.writeByte(RECORD_REMOVE);
+			out.writeUTF(user);
+		} else {
+			out.writeByte(RECORD_SAVE);
+			out.writeUTF(user);
+			writeNullableString(out, token.getAccessToken());
+			writeNullableString(out, token.getRefreshToken());
+			out.writeLong(token.getLifeTime());
+			out.writeLong(token.getExpirationTime());
+		}
+
+		int length = records.size() - start - FRAME_LENGTH;
+		crc.reset();
+		crc.update(records.array(), start + FRAME_LENGTH, length);
+		records.putInt(start, length);
+		records.putInt(start + 4, (int) crc.getValue());
+	}
+
+	/**
+	 * Loads tokens from the file, stopping at torn tail left by a crash, that
+	 * is incomplete or corrupted last record. Corrupted record followed by
+	 * others fails, as cutting it off would lose tokens acknowledged since.
+	 */
+	private void replay() throws IOException
+	{
+		InputStream stream = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			DataInputStream in = new DataInputStream(stream);
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a token store");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version " + version + " of token store " + file);
+			position = HEADER_LENGTH;
+
+			long fileLength = file.length();
+			byte[] payload = new byte[256];
+			CRC32 checksum = new CRC32();
+			while (position < fileLength)
+			{
+				int length;
+				int expectedCrc;
+				try {
+					length = in.readInt();
+					expectedCrc = in.readInt();
+					if (length <= 0 || length > MAX_RECORD_LENGTH) {
+						// Length of a record torn by crash may not have been written
+						if (isZero(in) == false)
+							throw corrupted();
+						tornTail = true;
+						return;
+					}
+					if (payload.length < length)
+						payload = new byte[Math.max(length, payload.length * 2)];
+					in.readFully(payload, 0, length);
+				} catch (EOFException e) {
+					tornTail = true;
+					return;
+				}
+
+				checksum.reset();
+				checksum.update(payload, 0, length);
+				if ((int) checksum.getValue() != expectedCrc) {
+					if (position + FRAME_LENGTH + length < fileLength)
+						throw corrupted();
+					tornTail = true;
+					return;
+				}
+
+				applyRecord(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+				position += FRAME_LENGTH + length;
+				recordCount++;
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	private IOException corrupted() {
+		return new IOException("Token store " + file + " is corrupted at " + position
+				+ ", records after it would be lost if it was opened, restore it from backup or move it aside");
+	}
+
+	/**
+	 * Returns whether the rest of the stream consists of zero bytes
+	 */
+	private static boolean isZero(InputStream in) throws IOException
+	{
+		int b;
+		while ((b = in.read()) != -1) {
+			if (b != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private void applyRecord(DataInputStream in) throws IOException
+	{
+		byte type = in.readByte();
+		String user = in.readUTF();
+		if (type == RECORD_REMOVE) {
+			tokens.remove(user);
+			return;
+		}
+
+		String accessToken = readNullableString(in);
+		String refreshToken = readNullableString(in);
+		long lifetime = in.readLong();
+		long expirationTime = in.readLong();
+		tokens.put(user, new Token(accessToken, refreshToken, lifetime, expirationTime));
+	}
+
+	private static void writeNullableString(DataOutputStream out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readNullableString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Growable buffer giving access to its content without copying
+	 */
+	static class RecordBuffer extends ByteArrayOutputStream
+	{
+		RecordBuffer() {
+			super(4096);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+
+		void putInt(int index, int value)
+		{
+			buf[index] = (byte) (value >>> 24);
+			buf[index + 1] = (byte) (value >>> 16);
+			buf[index + 2] = (byte) (value >>> 8);
+			buf[index + 3] = (byte) value;
+		}
+	}
+}
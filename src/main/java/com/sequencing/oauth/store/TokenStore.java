@@ -0,0 +1,50 @@
+package com.sequencing.oauth.store;
+
+import java.io.IOException;
+import java.util.Map;
+
+import com.sequencing.oauth.core.Token;
+
+/**
+ * Permanent storage of user tokens, so that users do not have to authorize
+ * again after application restart. Tokens are keyed by user identity chosen
+ * by the application. Implementations must be thread safe.
+ */
+public interface TokenStore
+{
+	/**
+	 * Returns token of given user or null if there is none
+	 */
+	Token load(String user) throws IOException;
+
+	/**
+	 * Returns tokens of all users
+	 */
+	Map<String, Token> loadAll() throws IOException;
+
+	/**
+	 * Stores token of given user, replacing previous one. Null token
+	 * removes the one stored.
+	 */
+	void save(String user, Token token) throws IOException;
+
+	/**
+	 * Stores tokens of several users at once, null tokens are removed
+	 */
+	void saveAll(Map<String, Token> tokens) throws IOException;
+
+	/**
+	 * Removes token of given user, e.g. when user logs out
+	 */
+	void remove(String user) throws IOException;
+
+	/**
+	 * Makes sure all tokens saved so far are written to permanent storage
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Flushes pending tokens and releases underlying resources
+	 */
+	void close() throws IOException;
+}
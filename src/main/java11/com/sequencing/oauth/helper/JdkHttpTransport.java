@@ -0,0 +1,235 @@
+package com.sequencing.oauth.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.sequencing.oauth.config.AuthenticationParameters;
+
+/**
+ * Transport backed by java.net.http.HttpClient. Requests to a host are
+ * multiplexed over a few HTTP/2 connections, servers that do not speak
+ * HTTP/2 are talked to over HTTP/1.1. Response content of blocking requests
+ * is streamed to handlers as it arrives. Content of asynchronous requests is
+ * received in full without holding a thread and handed over once complete.
+ */
+public class JdkHttpTransport implements HttpTransport
+{
+	private final HttpClient client;
+	private final Duration requestTimeout;
+
+	public JdkHttpTransport(AuthenticationParameters parameters)
+	{
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_2)
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.sslContext(SharedSslContext.get());
+		if (parameters.getConnectTimeout() > 0)
+			builder.connectTimeout(Duration.ofMillis(parameters.getConnectTimeout()));
+
+		client = builder.build();
+		requestTimeout = parameters.getSocketTimeout() > 0 ? Duration.ofMillis(parameters.getSocketTimeout()) : null;
+	}
+
+	@Override
+	public <T> T execute(TransportRequest request, TransportResponseHandler<T> handler) throws IOException
+	{
+		HttpResponse<InputStream> response;
+		try {
+			response = client.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofInputStream());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while executing request to " + request.getUri());
+		}
+		return handle(response, handler);
+	}
+
+	@Override
+	public StreamingResponse open(TransportRequest request) throws IOException
+	{
+		try {
+			return new OpenResponse(client.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofInputStream()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while executing request to " + request.getUri());
+		}
+	}
+
+	@Override
+	public <T> CompletableFuture<T> executeAsync(TransportRequest request, final TransportResponseHandler<T> handler)
+	{
+		return client.sendAsync(toHttpRequest(request), HttpResponse.BodyHandlers.ofByteArray())
+				.thenApply(new Function<HttpResponse<byte[]>, T>() {
+					public T apply(HttpResponse<byte[]> response) {
+						try {
+							return handler.handle(new Response(response, new ByteArrayInputStream(response.body())));
+						} catch (IOException e) {
+							throw new CompletionException(e);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Sends HEAD requests to root of the host at once, leaving connections
+	 * they went over open. An HTTP/2 server gets all of them over a single
+	 * connection, which is all requests would use anyway.
+	 */
+	@Override
+	public int preconnect(URI uri, int count) throws IOException
+	{
+		URI root = uri.resolve("/");
+		List<CompletableFuture<HttpResponse<Void>>> exchanges = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+		for (int i = 0; i < count; i++) {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(root).method("HEAD", HttpRequest.BodyPublishers.noBody());
+			if (requestTimeout != null)
+				builder.timeout(requestTimeout);
+			exchanges.add(client.sendAsync(builder.build(), HttpResponse.BodyHandlers.discarding()));
+		}
+
+		int completed = 0;
+		IOException failure = null;
+		for (CompletableFuture<HttpResponse<Void>> exchange : exchanges) {
+			try {
+				exchange.get();
+				completed++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while opening connections to " + root);
+			} catch (ExecutionException e) {
+				failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+						: new IOException("Unable to connect to " + root, e.getCause());
+			}
+		}
+		if (completed == 0 && failure != null)
+			throw failure;
+		return completed;
+	}
+
+	/**
+	 * Does nothing as HttpClient releases its connections once it is unreachable
+	 */
+	@Override
+	public void close() {
+	}
+
+	private static <T> T handle(HttpResponse<InputStream> response, TransportResponseHandler<T> handler) throws IOException
+	{
+		InputStream content = response.body();
+		try {
+			return handler.handle(new Response(response, content));
+		} finally {
+			// Closing discards the rest of the content and frees the stream
+			content.close();
+		}
+	}
+
+	private HttpRequest toHttpRequest(TransportRequest request)
+	{
+		HttpRequest.Builder builder = HttpRequest.newBuilder(request.getUri());
+		if (requestTimeout != null)
+			builder.timeout(requestTimeout);
+
+		for (Map.Entry<String, String> h : request.getHeaders().entrySet())
+			builder.header(h.getKey(), h.getValue());
+
+		if (TransportRequest.METHOD_POST.equals(request.getMethod())) {
+			builder.header("Content-Type", "application/x-www-form-urlencoded");
+			builder.POST(HttpRequest.BodyPublishers.ofString(encodeForm(request.getForm())));
+		} else {
+			builder.method(request.getMethod(), HttpRequest.BodyPublishers.noBody());
+		}
+		return builder.build();
+	}
+
+	private static String encodeForm(Map<String, String> form)
+	{
+		if (form == null)
+			return "";
+
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, String> p : form.entrySet()) {
+			if (result.length() > 0)
+				result.append('&');
+			result.append(URLEncoder.encode(p.getKey(), StandardCharsets.UTF_8)).append('=')
+					.append(URLEncoder.encode(p.getValue(), StandardCharsets.UTF_8));
+		}
+		return result.toString();
+	}
+
+	static class Response implements TransportResponse
+	{
+		private final HttpResponse<?> response;
+		private final InputStream content;
+
+		Response(HttpResponse<?> response, InputStream content) {
+			this.response = response;
+			this.content = content;
+		}
+
+		@Override
+		public int getStatusCode() {
+			return response.statusCode();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return response.headers().firstValue(name).orElse(null);
+		}
+
+		@Override
+		public InputStream getContent() {
+			return content != null ? content : new ByteArrayInputStream(new byte[0]);
+		}
+
+		@Override
+		public Charset getCharset()
+		{
+			String contentType = getHeader("Content-Type");
+			if (contentType != null) {
+				for (String parameter : contentType.split(";")) {
+					String[] pair = parameter.trim().split("=", 2);
+					if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+						try {
+							return Charset.forName(pair[1].trim().replace("\"", ""));
+						} catch (IllegalArgumentException e) {
+							break;
+						}
+					}
+				}
+			}
+			return StandardCharsets.UTF_8;
+		}
+	}
+
+	/**
+	 * Response of blocking request, closing it discards the rest of the content
+	 */
+	static class OpenResponse extends Response implements StreamingResponse
+	{
+		OpenResponse(HttpResponse<InputStream> response) {
+			super(response, response.body());
+		}
+
+		@Override
+		public void close() throws IOException {
+			getContent().close();
+		}
+	}
+}
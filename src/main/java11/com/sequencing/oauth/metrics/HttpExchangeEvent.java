@@ -0,0 +1,91 @@
+package com.sequencing.oauth.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * HTTP exchange with sequencing.com backend, one per attempt
+ */
+@Name("com.sequencing.oauth.HttpExchange")
+@Label("HTTP Exchange")
+@Category({"Sequencing.com", "OAuth"})
+@Description("HTTP exchange with sequencing.com backend, retries are separate events")
+@StackTrace(false)
+class HttpExchangeEvent extends Event implements HttpExchangeTrace
+{
+	@Label("Endpoint")
+	String endpoint;
+
+	@Label("Method")
+	String method;
+
+	@Label("Status Code")
+	@Description("HTTP status code or -1 if exchange failed with I/O error")
+	int statusCode;
+
+	@Label("Connect Time")
+	@Description("Opening connection, TLS handshake included, zero when connection has been reused or transport does not tell")
+	@Timespan
+	long connectTime;
+
+	@Label("Wait Time")
+	@Description("From sending request until response headers arrived")
+	@Timespan
+	long waitTime;
+
+	@Label("Read Time")
+	@Description("Waiting for response content to arrive")
+	@Timespan
+	long readTime;
+
+	@Label("Parse Time")
+	@Description("Decompressing and parsing response content")
+	@Timespan
+	long parseTime;
+
+	@Label("Content Encoding")
+	String encoding;
+
+	@Label("Wire Bytes")
+	@DataAmount
+	long wireBytes;
+
+	@Label("Decoded Bytes")
+	@DataAmount
+	long decodedBytes;
+
+	@Override
+	public void setConnectTime(long nanos) {
+		connectTime = nanos;
+	}
+
+	@Override
+	public void setWaitTime(long nanos) {
+		waitTime = nanos;
+	}
+
+	@Override
+	public void setContent(String encoding, long wireBytes, long decodedBytes, long readNanos, long parseNanos)
+	{
+		this.encoding = encoding;
+		this.wireBytes = wireBytes;
+		this.decodedBytes = decodedBytes;
+		this.readTime = readNanos;
+		this.parseTime = parseNanos;
+	}
+
+	@Override
+	public void end(String endpoint, String method, int statusCode)
+	{
+		this.endpoint = endpoint;
+		this.method = method;
+		this.statusCode = statusCode;
+		commit();
+	}
+}
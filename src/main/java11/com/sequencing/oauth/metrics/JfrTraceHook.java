@@ -0,0 +1,30 @@
+package com.sequencing.oauth.metrics;
+
+/**
+ * Emits Java Flight Recorder events. An event is only begun when a running
+ * recording has it enabled, otherwise nothing is measured.
+ */
+public class JfrTraceHook implements TraceHook
+{
+	@Override
+	public HttpExchangeTrace beginHttpExchange()
+	{
+		HttpExchangeEvent event = new HttpExchangeEvent();
+		if (event.isEnabled() == false)
+			return null;
+
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public TokenRefreshTrace beginTokenRefresh()
+	{
+		TokenRefreshEvent event = new TokenRefreshEvent();
+		if (event.isEnabled() == false)
+			return null;
+
+		event.begin();
+		return event;
+	}
+}
@@ -0,0 +1,46 @@
+package com.sequencing.oauth.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Access token refresh, token endpoint exchanges it makes are separate events
+ */
+@Name("com.sequencing.oauth.TokenRefresh")
+@Label("Token Refresh")
+@Category({"Sequencing.com", "OAuth"})
+@Description("Access token refresh, scheduled or on demand")
+@StackTrace(false)
+class TokenRefreshEvent extends Event implements TokenRefreshTrace
+{
+	@Label("Client Id")
+	String clientId;
+
+	@Label("Success")
+	boolean success;
+
+	@Label("Start Lag")
+	@Description("How late scheduled refresh started, zero for on-demand refresh")
+	@Timespan(Timespan.MILLISECONDS)
+	long lag;
+
+	@Label("Time To Expiry")
+	@Description("How long the old access token still had to live")
+	@Timespan(Timespan.MILLISECONDS)
+	long timeToExpiry;
+
+	@Override
+	public void end(String clientId, boolean success, long lagMillis, long timeToExpiryMillis)
+	{
+		this.clientId = clientId;
+		this.success = success;
+		this.lag = lagMillis;
+		this.timeToExpiry = timeToExpiryMillis;
+		commit();
+	}
+}